@@ -0,0 +1,219 @@
+package us.clubup.geolocation;
+
+
+import android.os.Parcel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+
+/**
+ * Compares {@link GeolocationConfig} with the shape it had before the headers were compiled into a {@link HeaderBlock}
+ * ({@link LegacyConfig}): the whole config parceled with the headers as {@code writeSerializable(HashMap)}, and the
+ * per-upload connection setup that parsed the URL and rendered the headers with {@code toString()} every time. Both sides
+ * carry the same URLs, headers and options.
+ * <p>
+ * Run with {@code ./gradlew connectedAndroidTest} on a device, preferably a low-end one. The test APK is not debuggable
+ * (see the androidTest manifest), otherwise the benchmark library refuses to run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GeolocationConfigBenchmark {
+
+    private static final String UPLOAD_URL = "https://example.com/api/locations";
+    private static final String FAILURE_URL = "https://example.com/api/failures";
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final HashMap<String, Object> headers = createHeaders();
+
+    @Test
+    public void parcelLegacyConfig() {
+
+        LegacyConfig config = new LegacyConfig(UPLOAD_URL, FAILURE_URL, headers, 60, 10);
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepGoing()) {
+            Parcel parcel = Parcel.obtain();
+            config.writeToParcel(parcel);
+            parcel.setDataPosition(0);
+            new LegacyConfig(parcel);
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void parcelConfig() {
+
+        GeolocationConfig config = createConfig();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepGoing()) {
+            Parcel parcel = Parcel.obtain();
+            config.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            GeolocationConfig.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void setupLegacyConnection() throws IOException {
+
+        LegacyConfig config = new LegacyConfig(UPLOAD_URL, FAILURE_URL, headers, 60, 10);
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepGoing()) {
+            HttpURLConnection httpConnection = (HttpURLConnection) new URL(config.uploadUrl).openConnection();
+            httpConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            httpConnection.setRequestProperty("Accept", "application/json");
+            for (String headerName : config.headers.keySet()) {
+                Object value = config.headers.get(headerName);
+                if (value != null) {
+                    httpConnection.setRequestProperty(headerName, value.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void setupConnection() throws IOException {
+
+        GeolocationConfig config = createConfig();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepGoing()) {
+            HttpURLConnection httpConnection = (HttpURLConnection) config.getUploadEndpoint().openConnection();
+            config.getHeaders().applyTo(httpConnection);
+        }
+    }
+
+    private GeolocationConfig createConfig() {
+
+        return new GeolocationConfig.Builder(UPLOAD_URL, FAILURE_URL, headers)
+                .setUpdatesIntervalSeconds(60)
+                .setDistanceFilter(10)
+                .build();
+    }
+
+    /**
+     * Headers as they come from {@code ReadableMap.toHashMap()}: a large signed token and a few boxed values.
+     */
+    private static HashMap<String, Object> createHeaders() {
+
+        StringBuilder token = new StringBuilder("Bearer ");
+        for (int i = 0; i < 2048; i++) {
+            token.append((char) ('a' + i % 26));
+        }
+
+        HashMap<String, Object> headers = new HashMap<>();
+        headers.put("Authorization", token.toString());
+        headers.put("X-Device-Id", "8f14e45f-ceea-467f-a0e6-4f6b5c1d2e3a");
+        headers.put("X-App-Version", "1.1.1");
+        headers.put("X-User-Id", 123456.0);
+        headers.put("X-Tracking-Enabled", true);
+        return headers;
+    }
+
+    /**
+     * The fields and the parcel layout of {@link GeolocationConfig} before {@link HeaderBlock}, with the same defaults.
+     */
+    private static class LegacyConfig {
+
+        final String uploadUrl;
+        final String failureUrl;
+        final HashMap<String, Object> headers;
+        final int updatesIntervalSeconds;
+        final int distanceFilter;
+        String replayTrackPath;
+        float replaySpeed = 1;
+        UploadFormat uploadFormat = UploadFormat.POINTS;
+        int polylinePrecision = 5;
+        int geohashPrecision = 0;
+        int stayMinSeconds = 5 * 60;
+        int maxFixesPerHour = 0;
+        int maxUploadsPerHour = 0;
+        long maxUploadBytesPerHour = 0;
+        long maxUploadBytesPerDay = 0;
+        boolean allowCompactEncoding = false;
+        float backlogDwellRadiusMeters = 50;
+        int backlogMinDwellSeconds = 5 * 60;
+        int backlogMinSpacingSeconds = 60;
+        int backlogChunkSize = 500;
+        int backlogChunkIntervalSeconds = 10;
+        boolean backlogNewestFirst = true;
+
+        LegacyConfig(String uploadUrl, String failureUrl, HashMap<String, Object> headers, int updatesIntervalSeconds,
+                int distanceFilter) {
+
+            this.uploadUrl = uploadUrl;
+            this.failureUrl = failureUrl;
+            this.headers = headers;
+            this.updatesIntervalSeconds = updatesIntervalSeconds;
+            this.distanceFilter = distanceFilter;
+        }
+
+        @SuppressWarnings("unchecked")
+        LegacyConfig(Parcel in) {
+
+            uploadUrl = in.readString();
+            failureUrl = in.readString();
+            updatesIntervalSeconds = in.readInt();
+            distanceFilter = in.readInt();
+            headers = (HashMap<String, Object>) in.readSerializable();
+            replayTrackPath = in.readString();
+            replaySpeed = in.readFloat();
+            uploadFormat = UploadFormat.valueOf(in.readString());
+            polylinePrecision = in.readInt();
+            geohashPrecision = in.readInt();
+            stayMinSeconds = in.readInt();
+            maxFixesPerHour = in.readInt();
+            maxUploadsPerHour = in.readInt();
+            maxUploadBytesPerHour = in.readLong();
+            maxUploadBytesPerDay = in.readLong();
+            allowCompactEncoding = in.readInt() != 0;
+            backlogDwellRadiusMeters = in.readFloat();
+            backlogMinDwellSeconds = in.readInt();
+            backlogMinSpacingSeconds = in.readInt();
+            backlogChunkSize = in.readInt();
+            backlogChunkIntervalSeconds = in.readInt();
+            backlogNewestFirst = in.readInt() != 0;
+        }
+
+        void writeToParcel(Parcel dest) {
+
+            dest.writeString(uploadUrl);
+            dest.writeString(failureUrl);
+            dest.writeInt(updatesIntervalSeconds);
+            dest.writeInt(distanceFilter);
+            dest.writeSerializable(headers);
+            dest.writeString(replayTrackPath);
+            dest.writeFloat(replaySpeed);
+            dest.writeString(uploadFormat.name());
+            dest.writeInt(polylinePrecision);
+            dest.writeInt(geohashPrecision);
+            dest.writeInt(stayMinSeconds);
+            dest.writeInt(maxFixesPerHour);
+            dest.writeInt(maxUploadsPerHour);
+            dest.writeLong(maxUploadBytesPerHour);
+            dest.writeLong(maxUploadBytesPerDay);
+            dest.writeInt(allowCompactEncoding ? 1 : 0);
+            dest.writeFloat(backlogDwellRadiusMeters);
+            dest.writeInt(backlogMinDwellSeconds);
+            dest.writeInt(backlogMinSpacingSeconds);
+            dest.writeInt(backlogChunkSize);
+            dest.writeInt(backlogChunkIntervalSeconds);
+            dest.writeInt(backlogNewestFirst ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// Exposes the location history to JS as an ArrayBuffer over the native memory of a direct ByteBuffer, see
+// HistoryBinding.java. JS wraps it in a Float64Array without copying.
+
+#include <jni.h>
+#include <jsi/jsi.h>
+
+#include <memory>
+
+using namespace facebook;
+
+namespace {
+
+JavaVM *javaVm = nullptr;
+jclass bindingClass = nullptr;
+jmethodID getHistoryMethod = nullptr;
+
+const char *FUNCTION_NAME = "__geolocationHistory";
+
+JNIEnv *getEnv() {
+
+    JNIEnv *env = nullptr;
+    if (javaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_EDETACHED) {
+        // the JS garbage collector may release a buffer on a thread the VM doesn't know yet
+        javaVm->AttachCurrentThreadAsDaemon(&env, nullptr);
+    }
+    return env;
+}
+
+// Keeps the direct ByteBuffer alive for as long as JS holds the ArrayBuffer.
+class DirectBuffer : public jsi::MutableBuffer {
+
+public:
+
+    DirectBuffer(JNIEnv *env, jobject buffer)
+            : buffer_(env->NewGlobalRef(buffer)),
+              data_(static_cast<uint8_t *>(env->GetDirectBufferAddress(buffer))),
+              size_(static_cast<size_t>(env->GetDirectBufferCapacity(buffer))) {
+    }
+
+    ~DirectBuffer() override {
+
+        JNIEnv *env = getEnv();
+        if (env != nullptr) {
+            env->DeleteGlobalRef(buffer_);
+        }
+    }
+
+    size_t size() const override {
+
+        return size_;
+    }
+
+    uint8_t *data() override {
+
+        return data_;
+    }
+
+private:
+
+    jobject buffer_;
+    uint8_t *data_;
+    size_t size_;
+};
+
+jsi::Value getHistory(jsi::Runtime &runtime, const jsi::Value &, const jsi::Value *arguments, size_t count) {
+
+    if (count < 2 || !arguments[0].isNumber() || !arguments[1].isNumber()) {
+        throw jsi::JSError(runtime, "__geolocationHistory(sinceTime, untilTime) expects two numbers");
+    }
+
+    JNIEnv *env = getEnv();
+    jobject buffer = env->CallStaticObjectMethod(bindingClass, getHistoryMethod,
+                                                 arguments[0].asNumber(), arguments[1].asNumber());
+    if (env->ExceptionCheck()) {
+        env->ExceptionDescribe();
+        env->ExceptionClear();
+        throw jsi::JSError(runtime, "Unable to read the location history");
+    }
+
+    auto mutableBuffer = std::make_shared<DirectBuffer>(env, buffer);
+    env->DeleteLocalRef(buffer);
+    return jsi::ArrayBuffer(runtime, mutableBuffer);
+}
+
+} // namespace
+
+extern "C" JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *) {
+
+    javaVm = vm;
+
+    JNIEnv *env = getEnv();
+    jclass localClass = env->FindClass("us/clubup/geolocation/HistoryBinding");
+    if (localClass == nullptr) {
+        return JNI_ERR;
+    }
+    bindingClass = static_cast<jclass>(env->NewGlobalRef(localClass));
+    env->DeleteLocalRef(localClass);
+    getHistoryMethod = env->GetStaticMethodID(bindingClass, "getHistory", "(DD)Ljava/nio/ByteBuffer;");
+    if (getHistoryMethod == nullptr) {
+        return JNI_ERR;
+    }
+
+    return JNI_VERSION_1_6;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_us_clubup_geolocation_HistoryBinding_nativeInstall(JNIEnv *, jclass, jlong runtimePointer) {
+
+    auto &runtime = *reinterpret_cast<jsi::Runtime *>(runtimePointer);
+    runtime.global().setProperty(runtime, FUNCTION_NAME, jsi::Function::createFromHostFunction(
+            runtime, jsi::PropNameID::forAscii(runtime, FUNCTION_NAME), 2, getHistory));
+}
@@ -0,0 +1,171 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * Compacts a backlog of locations in a single pass with bounded memory:
+ * <ul>
+ * <li>a run of consecutive locations that stay within {@code dwellRadiusMeters} of the first one for at least
+ * {@code minDwellMillis} is merged into a single dwell record at the centroid of the run;</li>
+ * <li>other locations are thinned to at most one per {@code minSpacingMillis}.</li>
+ * </ul>
+ * The locations are expected in chronological order, but a location older than its predecessor is kept rather than
+ * dropped: the dwell spans from the earliest to the latest location of the run, and the thinning only compares the
+ * distance in time.
+ * Until a run becomes a dwell, its thinned locations are buffered, but never more than {@link #MAX_BUFFERED}: once the
+ * buffer is full, the oldest one is written out to make room, and the run goes on. Once a run is a dwell only running sums
+ * are kept, so the memory doesn't depend on the size of the backlog.
+ */
+class BacklogCompactor {
+
+    static final int MAX_BUFFERED = 256;
+
+    private final float dwellRadiusMeters;
+    private final long minDwellMillis;
+    private final long minSpacingMillis;
+
+    private final float[] distance = new float[1];
+
+    // the current run
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double sumLatitude;
+    private double sumLongitude;
+    private double sumAltitude;
+    private float minAccuracy;
+    private long startTime;
+    private long endTime;
+    private int count;
+
+    // thinned locations of the current run while it isn't a dwell yet, packed as records
+    private final long[] bufferedTimes = new long[MAX_BUFFERED];
+    private final double[] bufferedValues = new double[MAX_BUFFERED * 3];
+    private final float[] bufferedAccuracies = new float[MAX_BUFFERED];
+    private int buffered;
+
+    private long lastEmittedTime;
+    private long emitted;
+
+    public BacklogCompactor(float dwellRadiusMeters, long minDwellMillis, long minSpacingMillis) {
+
+        this.dwellRadiusMeters = dwellRadiusMeters;
+        this.minDwellMillis = minDwellMillis;
+        this.minSpacingMillis = minSpacingMillis;
+    }
+
+    /**
+     * Reads {@code records} backlog records from {@code in} and writes the compacted ones to {@code out}.
+     *
+     * @return the number of written records
+     */
+    public long compact(DataInput in, long records, DataOutput out) throws IOException {
+
+        count = 0;
+        buffered = 0;
+        lastEmittedTime = 0;
+        emitted = 0;
+
+        for (long i = 0; i < records; i++) {
+
+            long time = in.readLong();
+            double latitude = in.readDouble();
+            double longitude = in.readDouble();
+            double altitude = in.readDouble();
+            float accuracy = in.readFloat();
+            in.readInt(); // count, raw backlog records are single locations
+            in.readLong(); // end time
+
+            if (count > 0) {
+                Location.distanceBetween(anchorLatitude, anchorLongitude, latitude, longitude, distance);
+                if (distance[0] > dwellRadiusMeters) {
+                    flushRun(out);
+                }
+            }
+            addToRun(time, latitude, longitude, altitude, accuracy, out);
+        }
+        flushRun(out);
+
+        return emitted;
+    }
+
+    private boolean isDwell() {
+
+        return count > 1 && endTime - startTime >= minDwellMillis;
+    }
+
+    private void addToRun(long time, double latitude, double longitude, double altitude, float accuracy, DataOutput out)
+            throws IOException {
+
+        if (count == 0) {
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+            sumLatitude = 0;
+            sumLongitude = 0;
+            sumAltitude = 0;
+            minAccuracy = accuracy;
+            startTime = time;
+            endTime = time;
+        }
+
+        count++;
+        startTime = Math.min(startTime, time);
+        endTime = Math.max(endTime, time);
+        sumLatitude += latitude;
+        sumLongitude += longitude;
+        sumAltitude += altitude;
+        minAccuracy = Math.min(minAccuracy, accuracy);
+
+        if (isDwell()) {
+            buffered = 0;
+        }
+        else if (buffered == 0 || Math.abs(time - bufferedTimes[buffered - 1]) >= minSpacingMillis) {
+            if (buffered == MAX_BUFFERED) {
+                emitBuffered(0, out);
+                buffered--;
+                System.arraycopy(bufferedTimes, 1, bufferedTimes, 0, buffered);
+                System.arraycopy(bufferedValues, 3, bufferedValues, 0, buffered * 3);
+                System.arraycopy(bufferedAccuracies, 1, bufferedAccuracies, 0, buffered);
+            }
+            bufferedTimes[buffered] = time;
+            bufferedValues[buffered * 3] = latitude;
+            bufferedValues[buffered * 3 + 1] = longitude;
+            bufferedValues[buffered * 3 + 2] = altitude;
+            bufferedAccuracies[buffered] = accuracy;
+            buffered++;
+        }
+    }
+
+    private void flushRun(DataOutput out) throws IOException {
+
+        if (isDwell()) {
+            LocationBacklog.writeRecord(out, startTime, sumLatitude / count, sumLongitude / count, sumAltitude / count,
+                    Math.max(minAccuracy, dwellRadiusMeters), count, endTime);
+            emitted++;
+            lastEmittedTime = endTime;
+        }
+        else {
+            for (int i = 0; i < buffered; i++) {
+                emitBuffered(i, out);
+            }
+        }
+
+        count = 0;
+        buffered = 0;
+    }
+
+    private void emitBuffered(int i, DataOutput out) throws IOException {
+
+        if (emitted == 0 || Math.abs(bufferedTimes[i] - lastEmittedTime) >= minSpacingMillis) {
+            LocationBacklog.writeRecord(out, bufferedTimes[i], bufferedValues[i * 3], bufferedValues[i * 3 + 1],
+                    bufferedValues[i * 3 + 2], bufferedAccuracies[i], 1, bufferedTimes[i]);
+            emitted++;
+            lastEmittedTime = bufferedTimes[i];
+        }
+    }
+}
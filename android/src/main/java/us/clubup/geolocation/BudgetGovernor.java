@@ -0,0 +1,330 @@
+package us.clubup.geolocation;
+
+
+import com.google.android.gms.location.LocationRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Keeps the tracking pipeline within the budgets set in {@link GeolocationConfig} by degrading it in {@link Stage}s.
+ * <p>
+ * The stage is chosen from the measured usage (fixes, uploads and uploaded bytes over the trailing hour and day) relative
+ * to the budgets, and from the battery state. Escalation is immediate, relaxing goes one stage at a time and not more often
+ * than {@link #RELAX_INTERVAL_MILLIS}, so the location request isn't re-issued on every fix. All the inputs, including the
+ * current time, are passed in, so the decisions are deterministic.
+ * <p>
+ * The upload budgets are hard caps: once one of them is used up, {@link #canUpload} is {@code false} and the batches go
+ * to the backlog until the window moves on. The measured usage is kept in a {@link Store}, so restarting the tracking or
+ * the process doesn't reset it. It's saved at most once a minute and on {@link #flush}, so a crash loses at most the last
+ * minute.
+ * <p>
+ * Battery stages only lower the priority and widen the interval. Switching the uploads to the compact
+ * {@link UploadFormat#POLYLINE} changes what the server receives, so {@link #getUploadFormat} only does it when the app
+ * allows it and the budgets, not the battery, call for it.
+ */
+class BudgetGovernor {
+
+    interface Store {
+
+        @Nullable
+        String get(String key);
+
+        /**
+         * Saves all the values at once.
+         */
+        void put(Map<String, String> values);
+    }
+
+    static final long MINUTE_MILLIS = 60 * 1000;
+    static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    static final long RELAX_INTERVAL_MILLIS = 15 * MINUTE_MILLIS;
+
+    static final int LOW_BATTERY_PERCENT = 30;
+    static final int CRITICAL_BATTERY_PERCENT = 15;
+
+    enum Stage {
+
+        NORMAL(1, 1, LocationRequest.PRIORITY_HIGH_ACCURACY, false),
+        REDUCED(2, 2, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, false),
+        LOW(4, 4, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, true),
+        MINIMAL(8, 8, LocationRequest.PRIORITY_LOW_POWER, true);
+
+        final int intervalMultiplier;
+        final int batchSize;
+        final int priority;
+        final boolean compactEncoding;
+
+        Stage(int intervalMultiplier, int batchSize, int priority, boolean compactEncoding) {
+
+            this.intervalMultiplier = intervalMultiplier;
+            this.batchSize = batchSize;
+            this.priority = priority;
+            this.compactEncoding = compactEncoding;
+        }
+    }
+
+    private final int maxFixesPerHour;
+    private final int maxUploadsPerHour;
+    private final long maxUploadBytesPerHour;
+    private final long maxUploadBytesPerDay;
+
+    private static final String KEY_FIXES_PER_HOUR = "fixesPerHour";
+    private static final String KEY_UPLOADS_PER_HOUR = "uploadsPerHour";
+    private static final String KEY_UPLOAD_BYTES_PER_HOUR = "uploadBytesPerHour";
+    private static final String KEY_UPLOAD_BYTES_PER_DAY = "uploadBytesPerDay";
+
+    private final RateWindow fixesPerHour = new RateWindow(MINUTE_MILLIS, 60);
+    private final RateWindow uploadsPerHour = new RateWindow(MINUTE_MILLIS, 60);
+    private final RateWindow uploadBytesPerHour = new RateWindow(MINUTE_MILLIS, 60);
+    private final RateWindow uploadBytesPerDay = new RateWindow(HOUR_MILLIS, 24);
+
+    private Stage stage = Stage.NORMAL;
+    private Stage usageStage = Stage.NORMAL;
+    private long stageChangeTime;
+
+    private boolean dirty;
+    private long saveTime = Long.MIN_VALUE;
+
+    @Nullable
+    private final Store store;
+
+    /**
+     * Budgets that are {@code 0} or less are not enforced.
+     *
+     * @param store where the measured usage is restored from and saved to, {@code null} keeps it in memory only
+     */
+    public BudgetGovernor(int maxFixesPerHour, int maxUploadsPerHour, long maxUploadBytesPerHour, long maxUploadBytesPerDay,
+            @Nullable Store store) {
+
+        this.maxFixesPerHour = maxFixesPerHour;
+        this.maxUploadsPerHour = maxUploadsPerHour;
+        this.maxUploadBytesPerHour = maxUploadBytesPerHour;
+        this.maxUploadBytesPerDay = maxUploadBytesPerDay;
+        this.store = store;
+
+        restore(KEY_FIXES_PER_HOUR, fixesPerHour);
+        restore(KEY_UPLOADS_PER_HOUR, uploadsPerHour);
+        restore(KEY_UPLOAD_BYTES_PER_HOUR, uploadBytesPerHour);
+        restore(KEY_UPLOAD_BYTES_PER_DAY, uploadBytesPerDay);
+    }
+
+    public synchronized void recordFixes(long now, int count) {
+
+        fixesPerHour.add(now, count);
+        changed(now);
+    }
+
+    public synchronized void recordUpload(long now, long bytes) {
+
+        uploadsPerHour.add(now, 1);
+        uploadBytesPerHour.add(now, bytes);
+        uploadBytesPerDay.add(now, bytes);
+        changed(now);
+    }
+
+    /**
+     * Saves the usage recorded since the last save, e.g. when the tracking stops.
+     */
+    public synchronized void flush() {
+
+        if (dirty && store != null) {
+            Map<String, String> values = new HashMap<>();
+            values.put(KEY_FIXES_PER_HOUR, fixesPerHour.save());
+            values.put(KEY_UPLOADS_PER_HOUR, uploadsPerHour.save());
+            values.put(KEY_UPLOAD_BYTES_PER_HOUR, uploadBytesPerHour.save());
+            values.put(KEY_UPLOAD_BYTES_PER_DAY, uploadBytesPerDay.save());
+            store.put(values);
+        }
+        dirty = false;
+    }
+
+    /**
+     * @return {@code false} while any of the upload budgets is used up
+     */
+    public synchronized boolean canUpload(long now) {
+
+        return ratio(uploadsPerHour.sum(now), maxUploadsPerHour) < 1f
+               && ratio(uploadBytesPerHour.sum(now), maxUploadBytesPerHour) < 1f
+               && ratio(uploadBytesPerDay.sum(now), maxUploadBytesPerDay) < 1f;
+    }
+
+    /**
+     * @return the bytes left in the hourly and daily upload budgets, {@link Long#MAX_VALUE} if neither is set
+     */
+    public synchronized long getRemainingUploadBytes(long now) {
+
+        long remaining = Long.MAX_VALUE;
+        if (maxUploadBytesPerHour > 0) {
+            remaining = Math.min(remaining, maxUploadBytesPerHour - uploadBytesPerHour.sum(now));
+        }
+        if (maxUploadBytesPerDay > 0) {
+            remaining = Math.min(remaining, maxUploadBytesPerDay - uploadBytesPerDay.sum(now));
+        }
+        return Math.max(0, remaining);
+    }
+
+    public synchronized Stage getStage() {
+
+        return stage;
+    }
+
+    /**
+     * Re-evaluates the stage.
+     *
+     * @param batteryPercent battery level from 0 to 100
+     * @return the new stage
+     */
+    public synchronized Stage evaluate(long now, int batteryPercent, boolean charging) {
+
+        usageStage = stageForUsage(getUsage(now));
+        Stage target = maxStage(usageStage, stageForBattery(batteryPercent, charging));
+
+        if (target.ordinal() > stage.ordinal()) {
+            setStage(target, now);
+        }
+        else if (target.ordinal() < stage.ordinal() && now - stageChangeTime >= RELAX_INTERVAL_MILLIS) {
+            setStage(Stage.values()[stage.ordinal() - 1], now);
+        }
+
+        return stage;
+    }
+
+    /**
+     * @param allowCompactEncoding whether the app accepts {@link UploadFormat#POLYLINE} uploads in place of
+     *                             {@code uploadFormat}
+     * @return {@link UploadFormat#POLYLINE} if it's allowed and both the stage and the usage alone call for
+     * {@link Stage#compactEncoding}, {@code uploadFormat} otherwise
+     */
+    public synchronized UploadFormat getUploadFormat(UploadFormat uploadFormat, boolean allowCompactEncoding) {
+
+        if (allowCompactEncoding && stage.compactEncoding && usageStage.compactEncoding) {
+            return UploadFormat.POLYLINE;
+        }
+        return uploadFormat;
+    }
+
+    /**
+     * @return the highest ratio of the measured usage to its budget, {@code 1} or more means a budget is exhausted
+     */
+    public synchronized float getUsage(long now) {
+
+        float usage = 0;
+        usage = Math.max(usage, ratio(fixesPerHour.sum(now), maxFixesPerHour));
+        usage = Math.max(usage, ratio(uploadsPerHour.sum(now), maxUploadsPerHour));
+        usage = Math.max(usage, ratio(uploadBytesPerHour.sum(now), maxUploadBytesPerHour));
+        usage = Math.max(usage, ratio(uploadBytesPerDay.sum(now), maxUploadBytesPerDay));
+        return usage;
+    }
+
+    /**
+     * Applies the current stage to the base request: lowers the priority, widens the interval and lets the provider batch
+     * the fixes into fewer callbacks, and therefore fewer uploads. In {@link Stage#MINIMAL} the interval is also stretched
+     * so that the budgets last: at most {@code maxFixesPerHour} fixes and {@code maxUploadsPerHour} uploads per hour, and
+     * at the measured average upload size, no more bytes than the hourly and a 24th of the daily byte budget.
+     */
+    public synchronized LocationRequest adjust(LocationRequest request, long now) {
+
+        long interval = getIntervalMillis(request.getInterval(), now);
+
+        return request.setPriority(Math.max(request.getPriority(), stage.priority))
+                      .setInterval(interval)
+                      .setFastestInterval(interval)
+                      .setMaxWaitTime(interval * stage.batchSize);
+    }
+
+    synchronized long getIntervalMillis(long baseIntervalMillis, long now) {
+
+        long interval = baseIntervalMillis * stage.intervalMultiplier;
+        if (stage != Stage.MINIMAL) {
+            return interval;
+        }
+
+        interval = Math.max(interval, minIntervalForBudget(maxFixesPerHour));
+
+        long uploadsPerHour = maxUploadsPerHour;
+        long uploads = this.uploadsPerHour.sum(now);
+        if (uploads > 0) {
+            long averageUploadBytes = Math.max(1, uploadBytesPerHour.sum(now) / uploads);
+            if (maxUploadBytesPerHour > 0) {
+                uploadsPerHour = minPositive(uploadsPerHour, Math.max(1, maxUploadBytesPerHour / averageUploadBytes));
+            }
+            if (maxUploadBytesPerDay > 0) {
+                uploadsPerHour = minPositive(uploadsPerHour, Math.max(1, maxUploadBytesPerDay / 24 / averageUploadBytes));
+            }
+        }
+        return Math.max(interval, minIntervalForBudget(uploadsPerHour) / stage.batchSize);
+    }
+
+    private void restore(String key, RateWindow window) {
+
+        String saved = store != null ? store.get(key) : null;
+        if (saved != null) {
+            window.restore(saved);
+        }
+    }
+
+    private void changed(long now) {
+
+        dirty = true;
+        if (now / MINUTE_MILLIS != saveTime / MINUTE_MILLIS) {
+            saveTime = now;
+            flush();
+        }
+    }
+
+    private void setStage(Stage stage, long now) {
+
+        this.stage = stage;
+        this.stageChangeTime = now;
+    }
+
+    private static Stage stageForUsage(float usage) {
+
+        if (usage >= 1f) {
+            return Stage.MINIMAL;
+        }
+        if (usage >= 0.75f) {
+            return Stage.LOW;
+        }
+        if (usage >= 0.5f) {
+            return Stage.REDUCED;
+        }
+        return Stage.NORMAL;
+    }
+
+    private static Stage stageForBattery(int batteryPercent, boolean charging) {
+
+        if (charging || batteryPercent > LOW_BATTERY_PERCENT) {
+            return Stage.NORMAL;
+        }
+        if (batteryPercent > CRITICAL_BATTERY_PERCENT) {
+            return Stage.REDUCED;
+        }
+        return Stage.LOW;
+    }
+
+    private static Stage maxStage(Stage a, Stage b) {
+
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    private static float ratio(long used, long budget) {
+
+        return budget > 0 ? (float) used / budget : 0;
+    }
+
+    private static long minPositive(long a, long b) {
+
+        return a > 0 ? Math.min(a, b) : b;
+    }
+
+    private static long minIntervalForBudget(long perHour) {
+
+        return perHour > 0 ? HOUR_MILLIS / perHour : 0;
+    }
+}
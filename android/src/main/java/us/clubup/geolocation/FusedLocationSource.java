@@ -0,0 +1,51 @@
+package us.clubup.geolocation;
+
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Looper;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+import androidx.core.app.ActivityCompat;
+
+
+class FusedLocationSource implements LocationSource {
+
+    private final Context context;
+    private final FusedLocationProviderClient fusedLocationClient;
+
+    public FusedLocationSource(Context context) {
+
+        this.context = context;
+        this.fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void requestLocationUpdates(LocationRequest request, LocationCallback callback, Looper looper) {
+
+        if (hasLocationPermission()) {
+            fusedLocationClient.requestLocationUpdates(request, callback, looper);
+        }
+    }
+
+    @Override
+    public void removeLocationUpdates(LocationCallback callback) {
+
+        fusedLocationClient.removeLocationUpdates(callback);
+    }
+
+    private boolean hasLocationPermission() {
+
+        return ActivityCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
+               || ActivityCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,63 @@
+package us.clubup.geolocation;
+
+
+/**
+ * Minimal <a href="https://en.wikipedia.org/wiki/Geohash">geohash</a> encoder.
+ */
+final class Geohash {
+
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+
+    }
+
+    /**
+     * Writes the geohash of the given coordinates into the first {@code precision} chars of {@code out}.
+     */
+    public static void encode(double latitude, double longitude, int precision, char[] out) {
+
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        boolean isLongitude = true;
+
+        for (int i = 0; i < precision; i++) {
+
+            int index = 0;
+            for (int bit = 4; bit >= 0; bit--) {
+
+                if (isLongitude) {
+                    double middle = (minLongitude + maxLongitude) / 2;
+                    if (longitude >= middle) {
+                        index |= 1 << bit;
+                        minLongitude = middle;
+                    }
+                    else {
+                        maxLongitude = middle;
+                    }
+                }
+                else {
+                    double middle = (minLatitude + maxLatitude) / 2;
+                    if (latitude >= middle) {
+                        index |= 1 << bit;
+                        minLatitude = middle;
+                    }
+                    else {
+                        maxLatitude = middle;
+                    }
+                }
+                isLongitude = !isLongitude;
+            }
+            out[i] = BASE32[index];
+        }
+    }
+
+    public static String encode(double latitude, double longitude, int precision) {
+
+        char[] out = new char[precision];
+        encode(latitude, longitude, precision, out);
+        return new String(out);
+    }
+}
@@ -1,47 +1,89 @@
 package us.clubup.geolocation;
 
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.Log;
 
 import com.google.android.gms.location.LocationRequest;
 
-import java.util.HashMap;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
 
 import androidx.annotation.Nullable;
 
 
+/**
+ * Immutable tracking configuration passed from {@link GeolocationModuleImpl} to {@link GeolocationService}, created with
+ * a {@link Builder}.
+ * <p>
+ * The upload URL is validated and the headers are compiled into a {@link HeaderBlock} once, when the config is built, so
+ * neither the service start nor the uploads pay for it again.
+ */
 public class GeolocationConfig implements Parcelable {
 
-    @Nullable
-    private String uploadUrl;
-    @Nullable
-    private String failureUrl;
-    @Nullable
-    private HashMap<String, Object> headers;
-
-    private int updatesIntervalSeconds = 5 * 60; // default to 5 minutes
-    private int distanceFilter = 0;
-
-    public GeolocationConfig(
-            @Nullable String uploadUrl,
-            @Nullable String failureUrl,
-            @Nullable HashMap<String, Object> headers,
-            int updatesIntervalSeconds,
-            int distanceFilter) {
+    private static final String TAG = "GeolocationConfig";
 
-        this.uploadUrl = uploadUrl;
-        this.failureUrl = failureUrl;
-        this.headers = headers;
-        this.updatesIntervalSeconds = updatesIntervalSeconds;
-        this.distanceFilter = distanceFilter;
-    }
+    private final String uploadUrl;
+    private final URL uploadEndpoint;
+    @Nullable
+    private final String failureUrl;
+    private final HeaderBlock headers;
 
-    public GeolocationConfig(@Nullable String uploadUrl, @Nullable String failureUrl, @Nullable HashMap<String, Object> headers) {
+    private final int updatesIntervalSeconds;
+    private final int distanceFilter;
 
-        this.uploadUrl = uploadUrl;
-        this.failureUrl = failureUrl;
-        this.headers = headers;
+    @Nullable
+    private final String replayTrackPath;
+    private final float replaySpeed;
+
+    private final UploadFormat uploadFormat;
+    private final int polylinePrecision;
+    private final int geohashPrecision;
+    private final int stayMinSeconds;
+
+    // budgets enforced by BudgetGovernor, 0 means unlimited
+    private final int maxFixesPerHour;
+    private final int maxUploadsPerHour;
+    private final long maxUploadBytesPerHour;
+    private final long maxUploadBytesPerDay;
+    private final boolean allowCompactEncoding;
+
+    // compaction and upload of the locations collected while offline, see UploadBacklog
+    private final float backlogDwellRadiusMeters;
+    private final int backlogMinDwellSeconds;
+    private final int backlogMinSpacingSeconds;
+    private final int backlogChunkMaxBytes;
+    private final int backlogChunkIntervalSeconds;
+    private final boolean backlogNewestFirst;
+
+    private GeolocationConfig(Builder builder, URL uploadEndpoint) {
+
+        uploadUrl = builder.uploadUrl;
+        this.uploadEndpoint = uploadEndpoint;
+        failureUrl = builder.failureUrl;
+        headers = HeaderBlock.compile(builder.headers);
+        updatesIntervalSeconds = builder.updatesIntervalSeconds;
+        distanceFilter = builder.distanceFilter;
+        replayTrackPath = builder.replayTrackPath;
+        replaySpeed = builder.replaySpeed;
+        uploadFormat = builder.uploadFormat;
+        polylinePrecision = builder.polylinePrecision;
+        geohashPrecision = builder.geohashPrecision;
+        stayMinSeconds = builder.stayMinSeconds;
+        maxFixesPerHour = builder.maxFixesPerHour;
+        maxUploadsPerHour = builder.maxUploadsPerHour;
+        maxUploadBytesPerHour = builder.maxUploadBytesPerHour;
+        maxUploadBytesPerDay = builder.maxUploadBytesPerDay;
+        allowCompactEncoding = builder.allowCompactEncoding;
+        backlogDwellRadiusMeters = builder.backlogDwellRadiusMeters;
+        backlogMinDwellSeconds = builder.backlogMinDwellSeconds;
+        backlogMinSpacingSeconds = builder.backlogMinSpacingSeconds;
+        backlogChunkMaxBytes = builder.backlogChunkMaxBytes;
+        backlogChunkIntervalSeconds = builder.backlogChunkIntervalSeconds;
+        backlogNewestFirst = builder.backlogNewestFirst;
     }
 
     protected GeolocationConfig(Parcel in) {
@@ -50,18 +92,58 @@ public class GeolocationConfig implements Parcelable {
         failureUrl = in.readString();
         updatesIntervalSeconds = in.readInt();
         distanceFilter = in.readInt();
-        headers = (HashMap<String, Object>) in.readSerializable();
+        headers = new HeaderBlock(in);
+        replayTrackPath = in.readString();
+        replaySpeed = in.readFloat();
+        uploadFormat = UploadFormat.values()[in.readInt()];
+        polylinePrecision = in.readInt();
+        geohashPrecision = in.readInt();
+        stayMinSeconds = in.readInt();
+        maxFixesPerHour = in.readInt();
+        maxUploadsPerHour = in.readInt();
+        maxUploadBytesPerHour = in.readLong();
+        maxUploadBytesPerDay = in.readLong();
+        allowCompactEncoding = in.readInt() != 0;
+        backlogDwellRadiusMeters = in.readFloat();
+        backlogMinDwellSeconds = in.readInt();
+        backlogMinSpacingSeconds = in.readInt();
+        backlogChunkMaxBytes = in.readInt();
+        backlogChunkIntervalSeconds = in.readInt();
+        backlogNewestFirst = in.readInt() != 0;
+
+        try {
+            uploadEndpoint = new URL(uploadUrl);
+        }
+        catch (MalformedURLException e) {
+            throw new BadParcelableException(e);
+        }
+    }
+
+    private static URL parseUrl(@Nullable String url) {
+
+        if (url == null) {
+            throw new IllegalArgumentException("URL is missing");
+        }
+        try {
+            URL parsed = new URL(url);
+            if (!"http".equals(parsed.getProtocol()) && !"https".equals(parsed.getProtocol())) {
+                throw new IllegalArgumentException("Not an HTTP(S) URL: " + url);
+            }
+            return parsed;
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL: " + url, e);
+        }
     }
 
-    @Nullable
     public String getUploadUrl() {
 
         return uploadUrl;
     }
 
-    public void setUploadUrl(@Nullable String uploadUrl) {
+    public URL getUploadEndpoint() {
 
-        this.uploadUrl = uploadUrl;
+        return uploadEndpoint;
     }
 
     @Nullable
@@ -70,30 +152,110 @@ public class GeolocationConfig implements Parcelable {
         return failureUrl;
     }
 
-    public void setFailureUrl(@Nullable String failureUrl) {
+    HeaderBlock getHeaders() {
 
-        this.failureUrl = failureUrl;
+        return headers;
+    }
+
+    public int getUpdatesIntervalSeconds() {
+
+        return updatesIntervalSeconds;
+    }
+
+    public int getDistanceFilter() {
+
+        return distanceFilter;
     }
 
     @Nullable
-    public HashMap<String, Object> getHeaders() {
+    public String getReplayTrackPath() {
 
-        return headers;
+        return replayTrackPath;
     }
 
-    public void setHeaders(@Nullable HashMap<String, Object> headers) {
+    public float getReplaySpeed() {
 
-        this.headers = headers;
+        return replaySpeed;
     }
 
-    public int getUpdatesIntervalSeconds() {
+    public UploadFormat getUploadFormat() {
 
-        return updatesIntervalSeconds;
+        return uploadFormat;
+    }
+
+    public int getPolylinePrecision() {
+
+        return polylinePrecision;
+    }
+
+    public int getGeohashPrecision() {
+
+        return geohashPrecision;
+    }
+
+    public int getStayMinSeconds() {
+
+        return stayMinSeconds;
+    }
+
+    public int getMaxFixesPerHour() {
+
+        return maxFixesPerHour;
+    }
+
+    public int getMaxUploadsPerHour() {
+
+        return maxUploadsPerHour;
+    }
+
+    public long getMaxUploadBytesPerHour() {
+
+        return maxUploadBytesPerHour;
+    }
+
+    public long getMaxUploadBytesPerDay() {
+
+        return maxUploadBytesPerDay;
+    }
+
+    public boolean isAllowCompactEncoding() {
+
+        return allowCompactEncoding;
+    }
+
+    public float getBacklogDwellRadiusMeters() {
+
+        return backlogDwellRadiusMeters;
+    }
+
+    public int getBacklogMinDwellSeconds() {
+
+        return backlogMinDwellSeconds;
+    }
+
+    public int getBacklogMinSpacingSeconds() {
+
+        return backlogMinSpacingSeconds;
+    }
+
+    public int getBacklogChunkMaxBytes() {
+
+        return backlogChunkMaxBytes;
+    }
+
+    public int getBacklogChunkIntervalSeconds() {
+
+        return backlogChunkIntervalSeconds;
+    }
+
+    public boolean isBacklogNewestFirst() {
+
+        return backlogNewestFirst;
     }
 
-    public void setUpdatesIntervalSeconds(int updatesIntervalSeconds) {
+    BudgetGovernor createBudgetGovernor(@Nullable BudgetGovernor.Store store) {
 
-        this.updatesIntervalSeconds = updatesIntervalSeconds;
+        return new BudgetGovernor(maxFixesPerHour, maxUploadsPerHour, maxUploadBytesPerHour, maxUploadBytesPerDay, store);
     }
 
     public LocationRequest toLocationRequest() {
@@ -112,7 +274,24 @@ public class GeolocationConfig implements Parcelable {
         dest.writeString(failureUrl);
         dest.writeInt(updatesIntervalSeconds);
         dest.writeInt(distanceFilter);
-        dest.writeSerializable(headers);
+        headers.writeToParcel(dest);
+        dest.writeString(replayTrackPath);
+        dest.writeFloat(replaySpeed);
+        dest.writeInt(uploadFormat.ordinal());
+        dest.writeInt(polylinePrecision);
+        dest.writeInt(geohashPrecision);
+        dest.writeInt(stayMinSeconds);
+        dest.writeInt(maxFixesPerHour);
+        dest.writeInt(maxUploadsPerHour);
+        dest.writeLong(maxUploadBytesPerHour);
+        dest.writeLong(maxUploadBytesPerDay);
+        dest.writeInt(allowCompactEncoding ? 1 : 0);
+        dest.writeFloat(backlogDwellRadiusMeters);
+        dest.writeInt(backlogMinDwellSeconds);
+        dest.writeInt(backlogMinSpacingSeconds);
+        dest.writeInt(backlogChunkMaxBytes);
+        dest.writeInt(backlogChunkIntervalSeconds);
+        dest.writeInt(backlogNewestFirst ? 1 : 0);
     }
 
     @Override
@@ -135,4 +314,191 @@ public class GeolocationConfig implements Parcelable {
             return new GeolocationConfig[size];
         }
     };
+
+    public static class Builder {
+
+        private final String uploadUrl;
+        @Nullable
+        private final String failureUrl;
+        @Nullable
+        private final Map<String, ?> headers;
+
+        private int updatesIntervalSeconds = 5 * 60; // default to 5 minutes
+        private int distanceFilter = 0;
+
+        @Nullable
+        private String replayTrackPath;
+        private float replaySpeed = 1f;
+
+        private UploadFormat uploadFormat = UploadFormat.POINTS;
+        private int polylinePrecision = 5;
+        private int geohashPrecision = 0; // stays are not reported by default
+        private int stayMinSeconds = 5 * 60;
+
+        private int maxFixesPerHour = 0;
+        private int maxUploadsPerHour = 0;
+        private long maxUploadBytesPerHour = 0;
+        private long maxUploadBytesPerDay = 0;
+        private boolean allowCompactEncoding = false;
+
+        private float backlogDwellRadiusMeters = 50;
+        private int backlogMinDwellSeconds = 5 * 60;
+        private int backlogMinSpacingSeconds = 60;
+        private int backlogChunkMaxBytes = 64 * 1024;
+        private int backlogChunkIntervalSeconds = 10;
+        private boolean backlogNewestFirst = true;
+
+        public Builder(String uploadUrl, @Nullable String failureUrl, @Nullable Map<String, ?> headers) {
+
+            this.uploadUrl = uploadUrl;
+            this.failureUrl = failureUrl;
+            this.headers = headers;
+        }
+
+        public Builder setUpdatesIntervalSeconds(int updatesIntervalSeconds) {
+
+            this.updatesIntervalSeconds = updatesIntervalSeconds;
+            return this;
+        }
+
+        public Builder setDistanceFilter(int distanceFilter) {
+
+            this.distanceFilter = distanceFilter;
+            return this;
+        }
+
+        /**
+         * Replays the GPX/CSV track at the given path instead of requesting real locations.
+         *
+         * @param replaySpeed how many times faster than real time the track is replayed (up to 1000), {@code 0} replays
+         *                    it as fast as possible
+         */
+        public Builder setReplayTrack(@Nullable String replayTrackPath, float replaySpeed) {
+
+            this.replayTrackPath = replayTrackPath;
+            this.replaySpeed = replaySpeed;
+            return this;
+        }
+
+        public Builder setUploadFormat(UploadFormat uploadFormat) {
+
+            this.uploadFormat = uploadFormat;
+            return this;
+        }
+
+        public Builder setPolylinePrecision(int polylinePrecision) {
+
+            this.polylinePrecision = polylinePrecision;
+            return this;
+        }
+
+        /**
+         * @param geohashPrecision length of the geohash cells used to report stays in {@link UploadFormat#POLYLINE}
+         *                         uploads, {@code 0} disables stays
+         */
+        public Builder setGeohashPrecision(int geohashPrecision) {
+
+            this.geohashPrecision = geohashPrecision;
+            return this;
+        }
+
+        /**
+         * @param stayMinSeconds how long the locations have to stay in a geohash cell to be reported as a stay
+         */
+        public Builder setStayMinSeconds(int stayMinSeconds) {
+
+            this.stayMinSeconds = stayMinSeconds;
+            return this;
+        }
+
+        public Builder setMaxFixesPerHour(int maxFixesPerHour) {
+
+            this.maxFixesPerHour = maxFixesPerHour;
+            return this;
+        }
+
+        public Builder setMaxUploadsPerHour(int maxUploadsPerHour) {
+
+            this.maxUploadsPerHour = maxUploadsPerHour;
+            return this;
+        }
+
+        public Builder setMaxUploadBytesPerHour(long maxUploadBytesPerHour) {
+
+            this.maxUploadBytesPerHour = maxUploadBytesPerHour;
+            return this;
+        }
+
+        public Builder setMaxUploadBytesPerDay(long maxUploadBytesPerDay) {
+
+            this.maxUploadBytesPerDay = maxUploadBytesPerDay;
+            return this;
+        }
+
+        /**
+         * @param allowCompactEncoding whether the uploads may switch to {@link UploadFormat#POLYLINE} when the budgets
+         *                             are running out, see {@link BudgetGovernor#getUploadFormat}
+         */
+        public Builder setAllowCompactEncoding(boolean allowCompactEncoding) {
+
+            this.allowCompactEncoding = allowCompactEncoding;
+            return this;
+        }
+
+        public Builder setBacklogDwellRadiusMeters(float backlogDwellRadiusMeters) {
+
+            this.backlogDwellRadiusMeters = backlogDwellRadiusMeters;
+            return this;
+        }
+
+        public Builder setBacklogMinDwellSeconds(int backlogMinDwellSeconds) {
+
+            this.backlogMinDwellSeconds = backlogMinDwellSeconds;
+            return this;
+        }
+
+        public Builder setBacklogMinSpacingSeconds(int backlogMinSpacingSeconds) {
+
+            this.backlogMinSpacingSeconds = backlogMinSpacingSeconds;
+            return this;
+        }
+
+        public Builder setBacklogChunkMaxBytes(int backlogChunkMaxBytes) {
+
+            this.backlogChunkMaxBytes = backlogChunkMaxBytes;
+            return this;
+        }
+
+        public Builder setBacklogChunkIntervalSeconds(int backlogChunkIntervalSeconds) {
+
+            this.backlogChunkIntervalSeconds = backlogChunkIntervalSeconds;
+            return this;
+        }
+
+        public Builder setBacklogNewestFirst(boolean backlogNewestFirst) {
+
+            this.backlogNewestFirst = backlogNewestFirst;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if {@code uploadUrl} isn't a valid HTTP(S) URL
+         */
+        public GeolocationConfig build() {
+
+            URL uploadEndpoint = parseUrl(uploadUrl);
+
+            // the failure URL isn't used on Android, an invalid one must not prevent the tracking
+            if (failureUrl != null && !failureUrl.isEmpty()) {
+                try {
+                    parseUrl(failureUrl);
+                }
+                catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Invalid failure URL: " + failureUrl);
+                }
+            }
+
+            return new GeolocationConfig(this, uploadEndpoint);
+        }
+    }
 }
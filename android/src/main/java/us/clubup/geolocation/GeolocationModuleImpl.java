@@ -0,0 +1,465 @@
+package us.clubup.geolocation;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentSender;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.net.Uri;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.facebook.react.bridge.ActivityEventListener;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.facebook.react.modules.core.PermissionAwareActivity;
+import com.facebook.react.modules.core.PermissionListener;
+import com.google.android.gms.common.api.ResolvableApiException;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.LocationSettingsRequest;
+import com.google.android.gms.location.LocationSettingsResponse;
+import com.google.android.gms.location.SettingsClient;
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+
+/**
+ * Implementation shared by the legacy bridge module and the TurboModule, see {@code GeolocationModule} in
+ * {@code src/paper} and {@code src/newarch}.
+ */
+public class GeolocationModuleImpl implements PermissionListener, ActivityEventListener {
+
+    public static final String NAME = "Geolocation";
+
+    public static final String EVENT_LOCATIONS = "GeolocationLocations";
+
+    private final ReactApplicationContext reactContext;
+
+    private GeolocationConfig config;
+    @Nullable
+    private ReadableMap options;
+    private Promise startPromise;
+
+    private int listenerCount;
+    private volatile boolean historyBindingInstalled;
+
+    private static final int REQUEST_CODE_PERMISSIONS = 42;
+    private static final int REQUEST_CODE_LOCATION_SETTINGS = 24;
+
+    public GeolocationModuleImpl(ReactApplicationContext reactContext) {
+
+        this.reactContext = reactContext;
+        reactContext.addActivityEventListener(this);
+    }
+
+    public void startTracking(String uploadUrl, String failureUrl, ReadableMap headers, int updatesIntervalSeconds, int distanceFilter,
+            Promise promise) {
+
+        GeolocationConfig.Builder builder = new GeolocationConfig.Builder(uploadUrl, failureUrl, headers.toHashMap())
+                .setUpdatesIntervalSeconds(updatesIntervalSeconds)
+                .setDistanceFilter(distanceFilter);
+        this.config = createConfig(builder, promise);
+        if (config == null) {
+            return;
+        }
+        this.startPromise = promise;
+
+        performChecksAndStart();
+    }
+
+    public void startReplay(String uploadUrl, String failureUrl, ReadableMap headers, int updatesIntervalSeconds, int distanceFilter,
+            String trackPath, double speed, Promise promise) {
+
+        GeolocationConfig.Builder builder = new GeolocationConfig.Builder(uploadUrl, failureUrl, headers.toHashMap())
+                .setUpdatesIntervalSeconds(updatesIntervalSeconds)
+                .setDistanceFilter(distanceFilter)
+                .setReplayTrack(trackPath, (float) speed);
+        this.config = createConfig(builder, promise);
+        if (config == null) {
+            return;
+        }
+        this.startPromise = promise;
+
+        // a recorded track needs neither location settings nor permissions
+        startTracking();
+    }
+
+    /**
+     * Sets the optional tracking options applied on the next start:
+     * <ul>
+     * <li>{@code uploadFormat} - {@code "points"} (default) or {@code "polyline"}, see {@link UploadFormat};</li>
+     * <li>{@code polylinePrecision} - decimal digits of the encoded polyline from 1 to 7, 5 by default;</li>
+     * <li>{@code geohashPrecision} - geohash length of the reported stays up to 12, 0 (default) disables stays;</li>
+     * <li>{@code stayMinSeconds} - minimum duration of a reported stay, 300 by default;</li>
+     * <li>{@code maxFixesPerHour}, {@code maxUploadsPerHour}, {@code maxUploadBytesPerHour}, {@code maxUploadBytesPerDay} -
+     * budgets enforced by {@link BudgetGovernor}, 0 (default) means unlimited;</li>
+     * <li>{@code allowCompactEncoding} - whether the uploads may switch to {@code "polyline"} when the budgets run low,
+     * {@code false} by default;</li>
+     * <li>{@code backlogDwellRadiusMeters}, {@code backlogMinDwellSeconds}, {@code backlogMinSpacingSeconds},
+     * {@code backlogChunkMaxBytes}, {@code backlogChunkIntervalSeconds}, {@code backlogNewestFirst} - compaction and upload of
+     * the locations collected while offline, see {@link UploadBacklog}.</li>
+     * </ul>
+     */
+    public void setOptions(ReadableMap options, Promise promise) {
+
+        try {
+            if (options.hasKey("uploadFormat")) {
+                UploadFormat.fromString(options.getString("uploadFormat"));
+            }
+            checkRange(options, "polylinePrecision", 1, 7);
+            checkRange(options, "geohashPrecision", 0, Geohash.MAX_PRECISION);
+            checkRange(options, "stayMinSeconds", 0, Integer.MAX_VALUE);
+            checkRange(options, "maxFixesPerHour", 0, Integer.MAX_VALUE);
+            checkRange(options, "maxUploadsPerHour", 0, Integer.MAX_VALUE);
+            checkNotNegative(options, "maxUploadBytesPerHour");
+            checkNotNegative(options, "maxUploadBytesPerDay");
+            checkNotNegative(options, "backlogDwellRadiusMeters");
+            checkRange(options, "backlogMinDwellSeconds", 0, Integer.MAX_VALUE);
+            checkRange(options, "backlogMinSpacingSeconds", 0, Integer.MAX_VALUE);
+            checkRange(options, "backlogChunkMaxBytes", 1, Integer.MAX_VALUE);
+            checkRange(options, "backlogChunkIntervalSeconds", 0, Integer.MAX_VALUE);
+            this.options = options;
+            promise.resolve(true);
+        }
+        catch (IllegalArgumentException e) {
+            promise.reject("invalid_options", e.getMessage());
+        }
+    }
+
+    private static void checkRange(ReadableMap options, String key, int min, int max) {
+
+        if (options.hasKey(key)) {
+            int value = options.getInt(key);
+            if (value < min || value > max) {
+                throw new IllegalArgumentException(key + " must be from " + min + " to " + max + ", got " + value);
+            }
+        }
+    }
+
+    private static void checkNotNegative(ReadableMap options, String key) {
+
+        if (options.hasKey(key)) {
+            double value = options.getDouble(key);
+            if (!(value >= 0)) {
+                throw new IllegalArgumentException(key + " must not be negative, got " + value);
+            }
+        }
+    }
+
+    /**
+     * Creates the config once per start with the options set by {@link #setOptions}: the headers are compiled and the
+     * upload URL is validated here, so the service and the uploads don't have to.
+     *
+     * @return the config or {@code null} if it is invalid, then the promise is rejected
+     */
+    @Nullable
+    private GeolocationConfig createConfig(GeolocationConfig.Builder builder, Promise promise) {
+
+        try {
+            applyOptions(builder);
+            return builder.build();
+        }
+        catch (IllegalArgumentException e) {
+            promise.reject("invalid_config", e.getMessage());
+            return null;
+        }
+    }
+
+    private void applyOptions(GeolocationConfig.Builder builder) {
+
+        if (options == null) {
+            return;
+        }
+        if (options.hasKey("uploadFormat")) {
+            builder.setUploadFormat(UploadFormat.fromString(options.getString("uploadFormat")));
+        }
+        if (options.hasKey("polylinePrecision")) {
+            builder.setPolylinePrecision(options.getInt("polylinePrecision"));
+        }
+        if (options.hasKey("geohashPrecision")) {
+            builder.setGeohashPrecision(options.getInt("geohashPrecision"));
+        }
+        if (options.hasKey("stayMinSeconds")) {
+            builder.setStayMinSeconds(options.getInt("stayMinSeconds"));
+        }
+        if (options.hasKey("maxFixesPerHour")) {
+            builder.setMaxFixesPerHour(options.getInt("maxFixesPerHour"));
+        }
+        if (options.hasKey("maxUploadsPerHour")) {
+            builder.setMaxUploadsPerHour(options.getInt("maxUploadsPerHour"));
+        }
+        if (options.hasKey("maxUploadBytesPerHour")) {
+            builder.setMaxUploadBytesPerHour((long) options.getDouble("maxUploadBytesPerHour"));
+        }
+        if (options.hasKey("maxUploadBytesPerDay")) {
+            builder.setMaxUploadBytesPerDay((long) options.getDouble("maxUploadBytesPerDay"));
+        }
+        if (options.hasKey("allowCompactEncoding")) {
+            builder.setAllowCompactEncoding(options.getBoolean("allowCompactEncoding"));
+        }
+        if (options.hasKey("backlogDwellRadiusMeters")) {
+            builder.setBacklogDwellRadiusMeters((float) options.getDouble("backlogDwellRadiusMeters"));
+        }
+        if (options.hasKey("backlogMinDwellSeconds")) {
+            builder.setBacklogMinDwellSeconds(options.getInt("backlogMinDwellSeconds"));
+        }
+        if (options.hasKey("backlogMinSpacingSeconds")) {
+            builder.setBacklogMinSpacingSeconds(options.getInt("backlogMinSpacingSeconds"));
+        }
+        if (options.hasKey("backlogChunkMaxBytes")) {
+            builder.setBacklogChunkMaxBytes(options.getInt("backlogChunkMaxBytes"));
+        }
+        if (options.hasKey("backlogChunkIntervalSeconds")) {
+            builder.setBacklogChunkIntervalSeconds(options.getInt("backlogChunkIntervalSeconds"));
+        }
+        if (options.hasKey("backlogNewestFirst")) {
+            builder.setBacklogNewestFirst(options.getBoolean("backlogNewestFirst"));
+        }
+    }
+
+    public void stopTracking(Promise promise) {
+
+        GeolocationService.stopTracking(getContext());
+        promise.resolve(true);
+    }
+
+    /**
+     * Installs {@link HistoryBinding} into the JS runtime, must be called on the JS thread.
+     *
+     * @return {@code false} if JSI isn't available and the history is only passed as base64 strings
+     */
+    public boolean installHistoryBinding() {
+
+        historyBindingInstalled = HistoryBinding.install(reactContext);
+        return historyBindingInstalled;
+    }
+
+    /**
+     * Resolves with the recorded locations newer than {@code sinceTime} as a single base64 string of packed doubles, see
+     * {@link LocationHistory}. The fallback for {@link HistoryBinding}.
+     */
+    public void getHistory(double sinceTime, Promise promise) {
+
+        promise.resolve(LocationHistory.getInstance().toBase64((long) sinceTime));
+    }
+
+    /**
+     * Starts emitting {@link #EVENT_LOCATIONS} with every batch of new locations while JS has listeners. With
+     * {@link HistoryBinding} installed the event only carries the time range of the batch ({@code since} exclusive,
+     * {@code until} inclusive) for JS to read through the binding, otherwise the locations encoded like
+     * {@link #getHistory}.
+     */
+    public void addListener(String eventName) {
+
+        if (listenerCount++ == 0) {
+            LocationHistory.getInstance().setListener(this::emitLocations);
+        }
+    }
+
+    public void removeListeners(double count) {
+
+        listenerCount = Math.max(0, listenerCount - (int) count);
+        if (listenerCount == 0) {
+            LocationHistory.getInstance().setListener(null);
+        }
+    }
+
+    public void invalidate() {
+
+        listenerCount = 0;
+        LocationHistory.getInstance().setListener(null);
+    }
+
+    private void emitLocations(List<Location> locations) {
+
+        if (!locations.isEmpty() && reactContext.hasActiveCatalystInstance()) {
+            WritableMap params = Arguments.createMap();
+            if (historyBindingInstalled) {
+                params.putDouble("since", locations.get(0).getTime() - 1);
+                params.putDouble("until", locations.get(locations.size() - 1).getTime());
+            }
+            else {
+                params.putString("points", LocationHistory.toBase64(locations));
+            }
+            reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(EVENT_LOCATIONS, params);
+        }
+    }
+
+    private void performChecksAndStart() {
+
+        checkLocationServiceAndStart();
+    }
+
+    private void checkLocationServiceAndStart() {
+
+        LocationRequest locationRequest = config.toLocationRequest();
+
+        LocationSettingsRequest.Builder builder = new LocationSettingsRequest.Builder()
+                .addLocationRequest(locationRequest);
+
+        SettingsClient client = LocationServices.getSettingsClient(getContext());
+        Task<LocationSettingsResponse> task = client.checkLocationSettings(builder.build())
+                                                    .addOnSuccessListener(locationSettingsResponse -> {
+                                                        checkPermissionsAndStart();
+                                                    })
+                                                    .addOnFailureListener(e -> {
+                                                        if (e instanceof ResolvableApiException) {
+                                                            // Location settings are not satisfied, but this can be fixed
+                                                            // by showing the user a dialog.
+                                                            try {
+                                                                // Show the dialog by calling startResolutionForResult(),
+                                                                // and check the result in onActivityResult().
+                                                                ResolvableApiException resolvable = (ResolvableApiException) e;
+                                                                Activity activity = reactContext.getCurrentActivity();
+                                                                if (activity != null) {
+                                                                    resolvable.startResolutionForResult(activity,
+                                                                            REQUEST_CODE_LOCATION_SETTINGS);
+                                                                }
+                                                            }
+                                                            catch (IntentSender.SendIntentException sendEx) {
+                                                                // Ignore the error.
+                                                            }
+                                                        }
+                                                    });
+    }
+
+    private void checkPermissionsAndStart() {
+
+        if (!hasForegroundLocationPermission()) {
+            requestForegroundLocationPermission();
+        }
+        else {
+            startTracking();
+        }
+    }
+
+    private boolean hasForegroundLocationPermission() {
+
+        Context context = reactContext;
+
+        boolean hasFineLocationPermission = ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                                            == PackageManager.PERMISSION_GRANTED;
+        boolean hasCoarseLocationPermission = ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
+                                              == PackageManager.PERMISSION_GRANTED;
+
+        return hasFineLocationPermission || hasCoarseLocationPermission;
+    }
+
+    private void requestForegroundLocationPermission() {
+
+        Activity activity = reactContext.getCurrentActivity();
+        if (activity == null) {
+            return;
+        }
+        if (ActivityCompat.shouldShowRequestPermissionRationale(activity, Manifest.permission.ACCESS_FINE_LOCATION)) {
+
+            new AlertDialog.Builder(activity)
+                    .setMessage(R.string.alert_message_location_permission)
+                    .setNegativeButton(R.string.no_thanks, ((dialog, which) -> missingPermission()))
+                    .setPositiveButton(R.string.settings, (dialog, which) -> goToSettings(activity))
+                    .show();
+        }
+        else {
+
+            String[] permissions = { Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION };
+            ((PermissionAwareActivity) activity).requestPermissions(permissions, REQUEST_CODE_PERMISSIONS, this);
+        }
+    }
+
+    private void startTracking() {
+
+        if (config != null) {
+            GeolocationService.startTracking(getContext(), config);
+            if (startPromise != null) {
+                startPromise.resolve(true);
+            }
+        }
+        else {
+            Log.w("GeolocationModule", "Config is null. Do not start geo-tracking.");
+        }
+    }
+
+    private void goToSettings(Context context) {
+
+        Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
+                Uri.fromParts("package", getContext().getPackageName(), null));
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(intent);
+    }
+
+    private void missingPermission() {
+
+        if (startPromise != null) {
+            startPromise.reject("missing_permission", "Location permission denied");
+        }
+    }
+
+    private void locationServiceDisabled() {
+
+        if (startPromise != null) {
+            startPromise.reject("location_disabled", "Location service is disabled");
+        }
+    }
+
+    private Context getContext() {
+
+        return reactContext;
+    }
+
+    @Override
+    public void onNewIntent(Intent intent) {
+
+    }
+
+    @Override
+    public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+
+        if (requestCode == REQUEST_CODE_LOCATION_SETTINGS) {
+            if (resultCode == Activity.RESULT_OK) {
+                checkPermissionsAndStart();
+            }
+            else {
+                locationServiceDisabled();
+            }
+        }
+    }
+
+    @Override
+    public boolean onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+
+        if (requestCode != REQUEST_CODE_PERMISSIONS) {
+            return false;
+        }
+
+        boolean allGranted = true;
+
+        for (int result : grantResults) {
+            if (result != PackageManager.PERMISSION_GRANTED) {
+                allGranted = false;
+                break;
+            }
+        }
+
+        if (allGranted) {
+            startTracking();
+        }
+        else {
+            missingPermission();
+        }
+
+        return true;
+    }
+}
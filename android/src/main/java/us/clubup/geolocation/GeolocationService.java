@@ -1,36 +1,41 @@
 package us.clubup.geolocation;
 
 
-import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.location.Location;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.Looper;
 import android.util.Log;
 import android.util.TypedValue;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
-import com.google.android.gms.location.LocationServices;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.Nullable;
-import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.res.ResourcesCompat;
 
@@ -44,6 +49,8 @@ public class GeolocationService extends Service {
 
     private static final String EXTRA_CONFIG = "config";
 
+    private static final String BUDGET_PREFERENCES = "us.clubup.geolocation.budget";
+
     private static final int NOTIFICATION_ID_TRACKING = 3862;
     private static final String NOTIFICATION_CHANNEL_ID = "location_service_channel";
 
@@ -51,15 +58,28 @@ public class GeolocationService extends Service {
     @Nullable
     private static GeolocationService instance = null;
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private static final int MAX_QUEUED_UPLOADS = 32;
+
+    // uploads that don't fit into the queue go to the backlog, so a burst of batches (e.g. a fast replay) can't exhaust
+    // the memory
+    private final ExecutorService executorService = new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED_UPLOADS), (runnable, executor) -> ((SendLocations) runnable).reject());
+    private final ExecutorService backlogExecutorService = Executors.newSingleThreadExecutor();
 
     private int startId;
 
     @Nullable
     private GeolocationConfig config;
 
-    private FusedLocationProviderClient fusedLocationClient;
-    private boolean isTracking;
+    private LocationSource locationSource;
+    private volatile boolean isTracking;
+
+    @Nullable
+    private BudgetGovernor budgetGovernor;
+
+    private LocationBacklog backlog;
+    @Nullable
+    private Future<?> backlogUpload;
 
 
     @Override
@@ -67,6 +87,7 @@ public class GeolocationService extends Service {
 
         super.onCreate();
         instance = this;
+        backlog = new LocationBacklog(getFilesDir());
         createNotificationChannel(this);
     }
 
@@ -75,6 +96,14 @@ public class GeolocationService extends Service {
 
         super.onDestroy();
         instance = null;
+
+        // the queued uploads never start, keep their locations in the backlog
+        for (Runnable upload : executorService.shutdownNow()) {
+            ((SendLocations) upload).reject();
+        }
+        synchronized (this) {
+            backlogExecutorService.shutdownNow();
+        }
     }
 
     @Override
@@ -104,6 +133,8 @@ public class GeolocationService extends Service {
         this.startId = startId;
         startAsForeground();
         config = intent.getParcelableExtra(EXTRA_CONFIG);
+        LocationHistory.getInstance().clear();
+        budgetGovernor = config.createBudgetGovernor(createBudgetStore());
         startTracking();
     }
 
@@ -111,10 +142,20 @@ public class GeolocationService extends Service {
 
         Log.d(TAG, "stopTracking");
 
-        if (fusedLocationClient != null) {
-            fusedLocationClient.removeLocationUpdates(locationCallback);
+        if (locationSource != null) {
+            locationSource.removeLocationUpdates(locationCallback);
+        }
+        synchronized (this) {
+            if (backlogUpload != null) {
+                backlogUpload.cancel(true);
+                backlogUpload = null;
+            }
+        }
+        if (budgetGovernor != null) {
+            budgetGovernor.flush();
         }
         config = null;
+        budgetGovernor = null;
         isTracking = false;
         stopForeground(true);
         stopSelf(startId);
@@ -162,31 +203,164 @@ public class GeolocationService extends Service {
         return drawableId;
     }
 
-    @SuppressLint("MissingPermission")
     private void startTracking() {
 
         Log.d(TAG, "startTracking");
 
         isTracking = true;
 
-        fusedLocationClient = LocationServices.getFusedLocationProviderClient(getApplicationContext());
-        if (hasLocationPermission()) {
-            fusedLocationClient.requestLocationUpdates(config.toLocationRequest(), locationCallback, Looper.getMainLooper());
+        locationSource = createLocationSource(config);
+        if (budgetGovernor != null) {
+            // the usage measured before a restart may already call for a degraded stage
+            evaluateBudget();
         }
+        requestLocationUpdates();
+    }
+
+    private void requestLocationUpdates() {
+
+        LocationRequest request = config.toLocationRequest();
+        if (budgetGovernor != null) {
+            request = budgetGovernor.adjust(request, System.currentTimeMillis());
+        }
+        locationSource.requestLocationUpdates(request, locationCallback, Looper.getMainLooper());
+    }
+
+    /**
+     * Lets the governor re-evaluate the stage with the current battery state.
+     *
+     * @return {@code true} if the stage changed and the location request has to be re-issued
+     */
+    private boolean evaluateBudget() {
+
+        BudgetGovernor.Stage stage = budgetGovernor.getStage();
+
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int batteryPercent = 100;
+        boolean charging = false;
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryPercent = level * 100 / scale;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+
+        BudgetGovernor.Stage newStage = budgetGovernor.evaluate(System.currentTimeMillis(), batteryPercent, charging);
+        if (newStage != stage) {
+            Log.d(TAG, "Budget stage changed from " + stage + " to " + newStage);
+            return true;
+        }
+        return false;
+    }
+
+    private BudgetGovernor.Store createBudgetStore() {
+
+        SharedPreferences preferences = getSharedPreferences(BUDGET_PREFERENCES, MODE_PRIVATE);
+
+        return new BudgetGovernor.Store() {
+
+            @Nullable
+            @Override
+            public String get(String key) {
+
+                return preferences.getString(key, null);
+            }
+
+            @Override
+            public void put(Map<String, String> values) {
+
+                SharedPreferences.Editor editor = preferences.edit();
+                for (Map.Entry<String, String> value : values.entrySet()) {
+                    editor.putString(value.getKey(), value.getValue());
+                }
+                editor.apply();
+            }
+        };
     }
 
-    private boolean hasLocationPermission() {
+    private LocationSource createLocationSource(GeolocationConfig config) {
 
-        return ActivityCompat.checkSelfPermission(this,
-                Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
-               || ActivityCompat.checkSelfPermission(this,
-                Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+        String replayTrackPath = config.getReplayTrackPath();
+        if (replayTrackPath != null) {
+            return new ReplayLocationSource(new File(replayTrackPath), config.getReplaySpeed());
+        }
+        return new FusedLocationSource(getApplicationContext());
     }
 
     private void processLocations(List<Location> locations) {
 
-        if (config != null) {
-            executorService.execute(new SendLocations(locations, config.getUploadUrl(), config.getHeaders()));
+        LocationHistory.getInstance().addAll(locations);
+
+        if (config != null && budgetGovernor != null) {
+            BudgetGovernor governor = budgetGovernor;
+            long now = System.currentTimeMillis();
+            governor.recordFixes(now, locations.size());
+            if (evaluateBudget()) {
+                requestLocationUpdates();
+            }
+
+            SendLocations.Listener listener = createUploadListener(config, governor, backlog.reserve());
+            if (!governor.canUpload(now)) {
+                // an upload budget is used up, keep the locations until the window moves on
+                listener.onFailed(locations);
+                return;
+            }
+
+            UploadFormat uploadFormat = governor.getUploadFormat(config.getUploadFormat(), config.isAllowCompactEncoding());
+            executorService.execute(new SendLocations(locations, config, uploadFormat, listener));
+        }
+    }
+
+    /**
+     * @param sequence the place of the batch in the backlog, see {@link LocationBacklog#reserve}
+     */
+    private SendLocations.Listener createUploadListener(GeolocationConfig config, BudgetGovernor governor, long sequence) {
+
+        return new SendLocations.Listener() {
+
+            @Override
+            public void onUploaded(int bytes) {
+
+                governor.recordUpload(System.currentTimeMillis(), bytes);
+            }
+
+            @Override
+            public void onDelivered() {
+
+                complete(null);
+
+                // the server is reachable again, catch up on what was collected while it wasn't
+                if (!backlog.isEmpty()) {
+                    scheduleBacklogUpload(config, governor, this);
+                }
+            }
+
+            @Override
+            public void onFailed(List<Location> locations) {
+
+                complete(locations);
+            }
+
+            private void complete(@Nullable List<Location> failed) {
+
+                try {
+                    backlog.complete(sequence, failed);
+                }
+                catch (IOException e) {
+                    Log.e(TAG, "Failed to save locations to the backlog", e);
+                }
+            }
+        };
+    }
+
+    private synchronized void scheduleBacklogUpload(GeolocationConfig config, BudgetGovernor governor,
+            SendLocations.Listener listener) {
+
+        if (isTracking && !backlogExecutorService.isShutdown() && (backlogUpload == null || backlogUpload.isDone())) {
+            backlogUpload = backlogExecutorService.submit(new UploadBacklog(backlog, config, governor, listener));
         }
     }
 
@@ -0,0 +1,81 @@
+package us.clubup.geolocation;
+
+
+import android.os.Parcel;
+
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Immutable set of the HTTP headers of the uploads, rendered to strings once when the tracking starts. It is parceled as
+ * two string arrays rather than a serialized map, and applied to each request without boxing or {@code toString()} calls.
+ */
+final class HeaderBlock {
+
+    private static final String[] DEFAULT_NAMES = { "Content-Type", "Accept" };
+    private static final String[] DEFAULT_VALUES = { "application/json; charset=utf-8", "application/json" };
+
+    private final String[] names;
+    private final String[] values;
+
+    private HeaderBlock(String[] names, String[] values) {
+
+        this.names = names;
+        this.values = values;
+    }
+
+    HeaderBlock(Parcel in) {
+
+        this(in.createStringArray(), in.createStringArray());
+    }
+
+    /**
+     * Renders the default headers followed by the given ones, which can override the defaults. Headers with {@code null}
+     * values are skipped.
+     */
+    public static HeaderBlock compile(@Nullable Map<String, ?> headers) {
+
+        int size = DEFAULT_NAMES.length + (headers != null ? headers.size() : 0);
+        String[] names = new String[size];
+        String[] values = new String[size];
+
+        System.arraycopy(DEFAULT_NAMES, 0, names, 0, DEFAULT_NAMES.length);
+        System.arraycopy(DEFAULT_VALUES, 0, values, 0, DEFAULT_VALUES.length);
+        int count = DEFAULT_NAMES.length;
+
+        if (headers != null) {
+            for (Map.Entry<String, ?> header : headers.entrySet()) {
+                if (header.getValue() != null) {
+                    names[count] = header.getKey();
+                    values[count] = header.getValue().toString();
+                    count++;
+                }
+            }
+        }
+
+        if (count < size) {
+            String[] trimmedNames = new String[count];
+            String[] trimmedValues = new String[count];
+            System.arraycopy(names, 0, trimmedNames, 0, count);
+            System.arraycopy(values, 0, trimmedValues, 0, count);
+            return new HeaderBlock(trimmedNames, trimmedValues);
+        }
+        return new HeaderBlock(names, values);
+    }
+
+    public void writeToParcel(Parcel dest) {
+
+        dest.writeStringArray(names);
+        dest.writeStringArray(values);
+    }
+
+    public void applyTo(HttpURLConnection httpConnection) {
+
+        for (int i = 0; i < names.length; i++) {
+            httpConnection.setRequestProperty(names[i], values[i]);
+        }
+    }
+}
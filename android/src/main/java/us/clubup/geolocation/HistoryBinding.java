@@ -0,0 +1,66 @@
+package us.clubup.geolocation;
+
+
+import android.util.Log;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import java.nio.ByteBuffer;
+
+import androidx.annotation.Keep;
+
+
+/**
+ * JSI binding that hands the {@link LocationHistory} to JS as an {@code ArrayBuffer} over the native memory of a direct
+ * {@link ByteBuffer}: the packed doubles are copied once, out of the history ring, and JS reads them in place through a
+ * {@code Float64Array}. Installs {@code global.__geolocationHistory(sinceTime, untilTime)}.
+ * <p>
+ * The native part is built for React Native 0.71 and later, which ships jsi as a prefab package. Without it, or without
+ * a JSI runtime (e.g. remote debugging), {@link #install} returns {@code false} and JS falls back to the base64 strings.
+ */
+final class HistoryBinding {
+
+    private static final String TAG = "HistoryBinding";
+
+    private static final String LIBRARY = "rngeolocation";
+
+    private HistoryBinding() {
+
+    }
+
+    /**
+     * Must be called on the JS thread.
+     *
+     * @return {@code true} if the binding is installed into the JS runtime of {@code reactContext}
+     */
+    public static boolean install(ReactApplicationContext reactContext) {
+
+        try {
+            System.loadLibrary(LIBRARY);
+        }
+        catch (UnsatisfiedLinkError e) {
+            Log.d(TAG, "History binding not available: " + e.getMessage());
+            return false;
+        }
+
+        long runtime = reactContext.getJavaScriptContextHolder().get();
+        if (runtime == 0) {
+            return false;
+        }
+
+        nativeInstall(runtime);
+        return true;
+    }
+
+    private static native void nativeInstall(long runtime);
+
+    /**
+     * Called from the native part.
+     */
+    @Keep
+    @SuppressWarnings("unused")
+    static ByteBuffer getHistory(double sinceTime, double untilTime) {
+
+        return LocationHistory.getInstance().toDirectBuffer((long) sinceTime, (long) untilTime);
+    }
+}
@@ -0,0 +1,238 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+import android.os.Bundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Locations that couldn't be uploaded, kept on disk until they are compacted and uploaded by {@link UploadBacklog}.
+ * <p>
+ * Failed batches are appended to the pending file in the order they were {@link #reserve reserved}, which is the order
+ * they were collected in, even though the uploads complete in any order. Before uploading, the pending file is rotated and compacted into the
+ * compacted file, which starts with the offset of its first not uploaded record and is then consumed chunk by chunk from
+ * either end. Both files consist of fixed-size records (see {@link #RECORD_SIZE}), so any chunk can be read without
+ * reading the rest of the file.
+ */
+class LocationBacklog {
+
+    static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 4 + 4 + 8;
+
+    static final String PROVIDER = "backlog";
+
+    static final String EXTRA_DWELL_UNTIL = "dwellUntil";
+    static final String EXTRA_COUNT = "count";
+
+    private static final int HEADER_SIZE = 8;
+
+    private final File pendingFile;
+    private final File rotatedFile;
+    private final File compactedFile;
+
+    // batches completed ahead of an earlier one, by sequence
+    private final TreeMap<Long, List<Location>> completed = new TreeMap<>();
+    private long nextSequence;
+    private long nextAppendSequence;
+
+    public LocationBacklog(File directory) {
+
+        this.pendingFile = new File(directory, "geolocation_backlog");
+        this.rotatedFile = new File(directory, "geolocation_backlog.rotated");
+        this.compactedFile = new File(directory, "geolocation_backlog.compacted");
+    }
+
+    /**
+     * Reserves the place of a batch about to be uploaded, must be followed by {@link #complete} once the upload is done.
+     *
+     * @return the sequence of the batch
+     */
+    public synchronized long reserve() {
+
+        return nextSequence++;
+    }
+
+    /**
+     * Appends the batch if it {@code failed}, and every batch completed after it that was only waiting for it.
+     *
+     * @param failed the locations to keep, {@code null} if the batch was delivered
+     */
+    public synchronized void complete(long sequence, @Nullable List<Location> failed) throws IOException {
+
+        completed.put(sequence, failed != null ? failed : Collections.emptyList());
+
+        while (!completed.isEmpty() && completed.firstKey() == nextAppendSequence) {
+            List<Location> locations = completed.remove(nextAppendSequence++);
+            if (!locations.isEmpty()) {
+                append(locations);
+            }
+        }
+    }
+
+    private void append(List<Location> locations) throws IOException {
+
+        // drop the partial record of an append interrupted by a crash, it would shift all the records after it
+        long length = pendingFile.length();
+        if (length % RECORD_SIZE != 0) {
+            try (RandomAccessFile file = new RandomAccessFile(pendingFile, "rw")) {
+                file.setLength(length - length % RECORD_SIZE);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pendingFile, true)))) {
+            for (Location location : locations) {
+                writeRecord(out, location.getTime(), location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                        location.getAccuracy(), 1, location.getTime());
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+
+        return !pendingFile.exists() && !rotatedFile.exists() && !compactedFile.exists();
+    }
+
+    /**
+     * Compacts the pending locations unless there is a compacted backlog left to upload, which has to be uploaded first.
+     */
+    public void compact(BacklogCompactor compactor) throws IOException {
+
+        synchronized (this) {
+            if (compactedFile.exists() && !rotatedFile.exists()) {
+                return;
+            }
+            if (!rotatedFile.exists()) {
+                if (!pendingFile.exists()) {
+                    return;
+                }
+                if (!pendingFile.renameTo(rotatedFile)) {
+                    throw new IOException("Unable to rotate " + pendingFile);
+                }
+            }
+        }
+
+        // a leftover compacted file here is a partial result of an interrupted compaction
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rotatedFile)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)))) {
+
+            out.writeLong(HEADER_SIZE);
+            compactor.compact(in, rotatedFile.length() / RECORD_SIZE, out);
+        }
+
+        if (!rotatedFile.delete()) {
+            throw new IOException("Unable to delete " + rotatedFile);
+        }
+    }
+
+    /**
+     * @return up to {@code maxCount} compacted locations from the oldest or the newest end, in chronological order
+     */
+    public List<Location> peekChunk(int maxCount, boolean newestFirst) throws IOException {
+
+        List<Location> chunk = new ArrayList<>();
+        if (!compactedFile.exists()) {
+            return chunk;
+        }
+
+        byte[] records;
+        try (RandomAccessFile file = new RandomAccessFile(compactedFile, "r")) {
+
+            long head = readHeader(file);
+            int count = (int) Math.min(maxCount, (file.length() - head) / RECORD_SIZE);
+            records = new byte[count * RECORD_SIZE];
+            file.seek(newestFirst ? file.length() - records.length : head);
+            file.readFully(records);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+        for (int i = 0; i < records.length / RECORD_SIZE; i++) {
+            chunk.add(readLocation(in));
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Drops the chunk returned by the last {@link #peekChunk} call once it is uploaded.
+     */
+    public void removeChunk(int count, boolean newestFirst) throws IOException {
+
+        long length;
+        try (RandomAccessFile file = new RandomAccessFile(compactedFile, "rw")) {
+
+            long head = readHeader(file);
+            if (newestFirst) {
+                file.setLength(Math.max(head, file.length() - (long) count * RECORD_SIZE));
+            }
+            else {
+                head = Math.min(file.length(), head + (long) count * RECORD_SIZE);
+                file.seek(0);
+                file.writeLong(head);
+            }
+            length = file.length() - head;
+        }
+
+        if (length <= 0 && !compactedFile.delete()) {
+            throw new IOException("Unable to delete " + compactedFile);
+        }
+    }
+
+    /**
+     * Reads the header in one call, {@link RandomAccessFile#readLong} would read it byte by byte.
+     */
+    private static long readHeader(RandomAccessFile file) throws IOException {
+
+        byte[] header = new byte[HEADER_SIZE];
+        file.readFully(header);
+        return new DataInputStream(new ByteArrayInputStream(header)).readLong();
+    }
+
+    static void writeRecord(DataOutput out, long time, double latitude, double longitude, double altitude, float accuracy,
+            int count, long endTime) throws IOException {
+
+        out.writeLong(time);
+        out.writeDouble(latitude);
+        out.writeDouble(longitude);
+        out.writeDouble(altitude);
+        out.writeFloat(accuracy);
+        out.writeInt(count);
+        out.writeLong(endTime);
+    }
+
+    private static Location readLocation(DataInput in) throws IOException {
+
+        Location location = new Location(PROVIDER);
+        location.setTime(in.readLong());
+        location.setLatitude(in.readDouble());
+        location.setLongitude(in.readDouble());
+        location.setAltitude(in.readDouble());
+        location.setAccuracy(in.readFloat());
+        int count = in.readInt();
+        long endTime = in.readLong();
+        if (count > 1) {
+            Bundle extras = new Bundle();
+            extras.putLong(EXTRA_DWELL_UNTIL, endTime);
+            extras.putInt(EXTRA_COUNT, count);
+            location.setExtras(extras);
+        }
+        return location;
+    }
+}
@@ -0,0 +1,167 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Bounded in-memory history of the tracked locations, kept as packed doubles. Each location takes {@link #STRIDE} values:
+ * time (epoch milliseconds), latitude, longitude, accuracy and altitude. The oldest locations are dropped once
+ * {@link #CAPACITY} is reached.
+ * <p>
+ * Locations are handed to JS as packed little-endian doubles: through {@link HistoryBinding} as an {@code ArrayBuffer}
+ * over a direct buffer where JSI is available, otherwise as a single base64 string that JS decodes into a
+ * {@code Float64Array}.
+ */
+class LocationHistory {
+
+    interface Listener {
+
+        /**
+         * @param locations the added locations, already in the history
+         */
+        void onLocationsAdded(List<Location> locations);
+    }
+
+    public static final int STRIDE = 5;
+    public static final int CAPACITY = 10000;
+
+    private static final LocationHistory instance = new LocationHistory(CAPACITY);
+
+    private final double[] values;
+    private final int capacity;
+
+    private int start;
+    private int size;
+
+    @Nullable
+    private volatile Listener listener;
+
+    LocationHistory(int capacity) {
+
+        this.capacity = capacity;
+        this.values = new double[capacity * STRIDE];
+    }
+
+    public static LocationHistory getInstance() {
+
+        return instance;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+
+        this.listener = listener;
+    }
+
+    public void addAll(List<Location> locations) {
+
+        synchronized (this) {
+            for (Location location : locations) {
+                add(location);
+            }
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onLocationsAdded(locations);
+        }
+    }
+
+    private void add(Location location) {
+
+        pack(location, values, ((start + size) % capacity) * STRIDE);
+
+        if (size < capacity) {
+            size++;
+        }
+        else {
+            start = (start + 1) % capacity;
+        }
+    }
+
+    /**
+     * @return the locations recorded after {@code sinceTime}, oldest first, packed by {@link #STRIDE} and encoded as
+     * base64 of little-endian doubles
+     */
+    public String toBase64(long sinceTime) {
+
+        return Base64.encodeToString(copy(sinceTime, Long.MAX_VALUE, false).array(), Base64.NO_WRAP);
+    }
+
+    /**
+     * @return the locations recorded after {@code sinceTime} and not after {@code untilTime}, oldest first, packed by
+     * {@link #STRIDE} as little-endian doubles into a direct buffer
+     */
+    public ByteBuffer toDirectBuffer(long sinceTime, long untilTime) {
+
+        return copy(sinceTime, untilTime, true);
+    }
+
+    /**
+     * @return {@code locations} packed and encoded like {@link #toBase64}
+     */
+    public static String toBase64(List<Location> locations) {
+
+        double[] values = new double[locations.size() * STRIDE];
+        for (int i = 0; i < locations.size(); i++) {
+            pack(locations.get(i), values, i * STRIDE);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values);
+        return Base64.encodeToString(buffer.array(), Base64.NO_WRAP);
+    }
+
+    private synchronized ByteBuffer copy(long sinceTime, long untilTime, boolean direct) {
+
+        int first = 0;
+        while (first < size && time(first) <= sinceTime) {
+            first++;
+        }
+        int end = first;
+        while (end < size && time(end) <= untilTime) {
+            end++;
+        }
+
+        // the ring wraps at most once, so the range is one or two contiguous slices
+        int from = (start + first) % capacity;
+        int count = end - first;
+        int tail = Math.min(count, capacity - from);
+
+        int bytes = count * STRIDE * 8;
+        ByteBuffer buffer = (direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.LITTLE_ENDIAN);
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        doubles.put(values, from * STRIDE, tail * STRIDE);
+        doubles.put(values, 0, (count - tail) * STRIDE);
+
+        return buffer;
+    }
+
+    private double time(int index) {
+
+        return values[((start + index) % capacity) * STRIDE];
+    }
+
+    private static void pack(Location location, double[] values, int offset) {
+
+        values[offset] = location.getTime();
+        values[offset + 1] = location.getLatitude();
+        values[offset + 2] = location.getLongitude();
+        values[offset + 3] = location.getAccuracy();
+        values[offset + 4] = location.getAltitude();
+    }
+
+    public synchronized void clear() {
+
+        start = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,19 @@
+package us.clubup.geolocation;
+
+
+import android.os.Looper;
+
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+
+
+/**
+ * Provider of location fixes for {@link GeolocationService}. The fused provider is used by default, a recorded track can
+ * be replayed instead with {@link ReplayLocationSource}.
+ */
+interface LocationSource {
+
+    void requestLocationUpdates(LocationRequest request, LocationCallback callback, Looper looper);
+
+    void removeLocationUpdates(LocationCallback callback);
+}
@@ -0,0 +1,81 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+
+/**
+ * Encodes locations with the <a href="https://developers.google.com/maps/documentation/utilities/polylinealgorithm">
+ * Encoded Polyline Algorithm</a>. The encoder writes straight into the given {@link Writer} and doesn't allocate per
+ * location, so it can be used on large batches. The output is escaped to be embedded in a JSON string.
+ */
+final class PolylineEncoder {
+
+    private PolylineEncoder() {
+
+    }
+
+    /**
+     * Appends the coordinates of {@code locations} as an encoded polyline with the given number of decimal digits
+     * ({@code 5} is the standard Google precision, {@code 6} is used by OSRM and others).
+     */
+    public static void encodePath(List<Location> locations, int precision, Writer out) throws IOException {
+
+        double factor = Math.pow(10, precision);
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+
+        for (int i = 0, size = locations.size(); i < size; i++) {
+
+            Location location = locations.get(i);
+            long latitude = Math.round(location.getLatitude() * factor);
+            long longitude = Math.round(location.getLongitude() * factor);
+
+            encodeValue(latitude - lastLatitude, out);
+            encodeValue(longitude - lastLongitude, out);
+
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+    }
+
+    /**
+     * Appends the time of each location, in seconds since the first one, as encoded deltas between consecutive
+     * locations. The array is parallel to the one produced by {@link #encodePath}.
+     */
+    public static void encodeTimeDeltas(List<Location> locations, Writer out) throws IOException {
+
+        long lastTime = locations.isEmpty() ? 0 : locations.get(0).getTime() / 1000;
+
+        for (int i = 0, size = locations.size(); i < size; i++) {
+
+            long time = locations.get(i).getTime() / 1000;
+            encodeValue(time - lastTime, out);
+            lastTime = time;
+        }
+    }
+
+    public static void encodeValue(long value, Writer out) throws IOException {
+
+        value = value < 0 ? ~(value << 1) : value << 1;
+
+        while (value >= 0x20) {
+            write((char) ((0x20 | (value & 0x1f)) + 63), out);
+            value >>= 5;
+        }
+        write((char) (value + 63), out);
+    }
+
+    private static void write(char c, Writer out) throws IOException {
+
+        // the only char of the polyline alphabet (63-126) that has to be escaped in JSON
+        if (c == '\\') {
+            out.write('\\');
+        }
+        out.write(c);
+    }
+}
@@ -0,0 +1,92 @@
+package us.clubup.geolocation;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Sliding-window counter split into fixed time buckets, e.g. 60 one-minute buckets for the trailing hour. Time is always
+ * passed in, so the counter is deterministic.
+ */
+class RateWindow {
+
+    private final long bucketMillis;
+    private final long[] sums;
+    private final long[] bucketIds;
+
+    public RateWindow(long bucketMillis, int buckets) {
+
+        this.bucketMillis = bucketMillis;
+        this.sums = new long[buckets];
+        this.bucketIds = new long[buckets];
+        Arrays.fill(bucketIds, -1);
+    }
+
+    public void add(long now, long amount) {
+
+        long bucketId = now / bucketMillis;
+        int index = (int) (bucketId % sums.length);
+        if (bucketIds[index] != bucketId) {
+            bucketIds[index] = bucketId;
+            sums[index] = 0;
+        }
+        sums[index] += amount;
+    }
+
+    /**
+     * @return the buckets as {@code bucketId:sum} pairs separated by {@code ;}, see {@link #restore}
+     */
+    public String save() {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sums.length; i++) {
+            if (bucketIds[i] >= 0) {
+                if (builder.length() > 0) {
+                    builder.append(';');
+                }
+                builder.append(bucketIds[i]).append(':').append(sums[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Restores the buckets saved with {@link #save}, ignoring malformed ones.
+     */
+    public void restore(String saved) {
+
+        for (String bucket : saved.split(";")) {
+            int separator = bucket.indexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                long bucketId = Long.parseLong(bucket.substring(0, separator));
+                long sum = Long.parseLong(bucket.substring(separator + 1));
+                int index = (int) (bucketId % sums.length);
+                if (bucketId > bucketIds[index]) {
+                    bucketIds[index] = bucketId;
+                    sums[index] = sum;
+                }
+            }
+            catch (NumberFormatException e) {
+                // skip the bucket
+            }
+        }
+    }
+
+    /**
+     * @return the total added within the window that ends at {@code now}
+     */
+    public long sum(long now) {
+
+        long firstBucketId = now / bucketMillis - sums.length + 1;
+        long sum = 0;
+        for (int i = 0; i < sums.length; i++) {
+            if (bucketIds[i] >= firstBucketId) {
+                sum += sums[i];
+            }
+        }
+        return sum;
+    }
+}
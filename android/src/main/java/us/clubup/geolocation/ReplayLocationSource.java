@@ -0,0 +1,162 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Replays a recorded GPX/CSV track (see {@link TrackReader}) instead of listening to the real provider. Fixes are
+ * delivered through the same {@link LocationCallback} as the fused provider uses, so everything downstream runs unchanged.
+ * <p>
+ * The interval, smallest displacement and max wait time of the {@link LocationRequest} are applied to the track time,
+ * the same way the fused provider would apply them to real time. The track time then flows {@code speed} times faster than real time,
+ * {@code speed <= 0} emits the fixes as fast as possible.
+ */
+class ReplayLocationSource implements LocationSource {
+
+    private static final String TAG = "ReplayLocationSource";
+
+    static final float MAX_SPEED = 1000f;
+
+    private final File track;
+    private final float speed;
+
+    @Nullable
+    private volatile Thread replayThread;
+    @Nullable
+    private volatile LocationCallback replayCallback;
+    private volatile LocationRequest request;
+
+    public ReplayLocationSource(File track, float speed) {
+
+        this.track = track;
+        this.speed = Math.min(speed, MAX_SPEED);
+    }
+
+    /**
+     * Like the fused provider, replaces the request of an already registered callback, so the replay continues with the
+     * new interval instead of starting over.
+     */
+    @Override
+    public void requestLocationUpdates(LocationRequest request, LocationCallback callback, Looper looper) {
+
+        this.request = request;
+        if (replayThread != null && replayCallback == callback) {
+            return;
+        }
+
+        removeLocationUpdates(callback);
+
+        Handler handler = new Handler(looper);
+        Thread thread = new Thread(() -> replay(callback, handler), TAG);
+        replayThread = thread;
+        replayCallback = callback;
+        thread.start();
+    }
+
+    @Override
+    public void removeLocationUpdates(LocationCallback callback) {
+
+        Thread thread = replayThread;
+        replayThread = null;
+        replayCallback = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void replay(LocationCallback callback, Handler handler) {
+
+        Log.d(TAG, "Replaying " + track + " at speed " + (speed > 0 ? speed + "x" : "max"));
+
+        Location lastAccepted = null;
+        long lastTime = 0;
+        List<Location> batch = new ArrayList<>();
+        Semaphore consumed = new Semaphore(1);
+        int delivered = 0;
+
+        try (TrackReader reader = TrackReader.open(track)) {
+
+            Location location;
+            while ((location = reader.next()) != null && !Thread.currentThread().isInterrupted()) {
+
+                LocationRequest request = this.request;
+
+                if (location.getTime() == 0) {
+                    location.setTime(lastTime == 0 ? System.currentTimeMillis() : lastTime + request.getInterval());
+                }
+                lastTime = location.getTime();
+
+                if (lastAccepted != null) {
+
+                    if (location.getTime() - lastAccepted.getTime() < request.getFastestInterval()
+                        || location.distanceTo(lastAccepted) < request.getSmallestDisplacement()) {
+                        continue;
+                    }
+                    if (speed > 0) {
+                        long delay = (long) ((location.getTime() - lastAccepted.getTime()) / speed);
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+                    }
+                }
+
+                lastAccepted = location;
+                location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+                batch.add(location);
+
+                // locations are batched up to the max wait time, as the fused provider does
+                if (location.getTime() - batch.get(0).getTime() + request.getFastestInterval() >= request.getMaxWaitTime()) {
+                    deliver(batch, callback, handler, consumed);
+                    delivered += batch.size();
+                    batch = new ArrayList<>();
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                deliver(batch, callback, handler, consumed);
+                delivered += batch.size();
+            }
+
+            Log.d(TAG, "Replay finished, " + delivered + " locations delivered");
+        }
+        catch (InterruptedException e) {
+            Log.d(TAG, "Replay stopped, " + delivered + " locations delivered");
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Failed to replay " + track, e);
+        }
+    }
+
+    private void deliver(List<Location> batch, LocationCallback callback, Handler handler, Semaphore consumed)
+            throws InterruptedException {
+
+        consumed.acquire();
+
+        Thread thread = Thread.currentThread();
+        LocationResult result = LocationResult.create(batch);
+        handler.post(() -> {
+            // the replay may have been stopped while the batch was waiting in the queue
+            if (replayThread == thread) {
+                callback.onLocationResult(result);
+            }
+            consumed.release();
+        });
+    }
+}
@@ -3,87 +3,174 @@ package us.clubup.geolocation;
 
 import android.annotation.SuppressLint;
 import android.location.Location;
+import android.os.Bundle;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.TimeZone;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 
 class SendLocations implements Runnable {
 
+    interface Listener {
+
+        void onUploaded(int bytes);
+
+        void onDelivered();
+
+        /**
+         * Called when the locations weren't delivered and are worth retrying later, see {@link LocationBacklog}.
+         */
+        void onFailed(List<Location> locations);
+    }
+
     @SuppressWarnings("unused")
     private static final String TAG = "SendLocation";
 
-    private final String uploadUrl;
-    private final HashMap<String, Object> headers;
+    private final URL uploadUrl;
+    private final HeaderBlock headers;
     private final List<Location> locations;
-
-    public SendLocations(List<Location> locations, @NonNull String uploadUrl, @Nullable HashMap<String, Object> headers) {
-
-        this.uploadUrl = uploadUrl;
-        this.headers = headers;
+    private final UploadFormat uploadFormat;
+    private final int polylinePrecision;
+    private final int geohashPrecision;
+    private final long stayMinMillis;
+    @Nullable
+    private final Listener listener;
+
+    public SendLocations(List<Location> locations, GeolocationConfig config, UploadFormat uploadFormat,
+            @Nullable Listener listener) {
+
+        this.uploadUrl = config.getUploadEndpoint();
+        this.headers = config.getHeaders();
         this.locations = locations;
+        this.uploadFormat = uploadFormat;
+        this.polylinePrecision = config.getPolylinePrecision();
+        this.geohashPrecision = Math.min(config.getGeohashPrecision(), Geohash.MAX_PRECISION);
+        this.stayMinMillis = config.getStayMinSeconds() * 1000L;
+        this.listener = listener;
     }
 
     @Override
     public void run() {
 
+        boolean delivered = send();
+        if (listener != null) {
+            if (delivered) {
+                listener.onDelivered();
+            }
+            else {
+                listener.onFailed(locations);
+            }
+        }
+    }
+
+    /**
+     * Hands the locations to {@link Listener#onFailed} without sending them, e.g. when the upload queue is full.
+     */
+    public void reject() {
+
+        if (listener != null) {
+            listener.onFailed(locations);
+        }
+    }
+
+    /**
+     * @return {@code false} if the locations should be retried later: the server wasn't reachable, timed out or
+     * responded with a server error
+     */
+    public boolean send() {
+
         try {
             HttpURLConnection httpConnection = setupConnection();
-            httpConnection.getOutputStream().write(generateBody().getBytes("utf-8"));
-            httpConnection.connect();
-            Log.d(TAG, "Response code: " + httpConnection.getResponseCode());
+            CountingOutputStream body = new CountingOutputStream(httpConnection.getOutputStream());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(body, "utf-8"));
+            writeBody(writer);
+            writer.close();
+            int responseCode = httpConnection.getResponseCode();
+            Log.d(TAG, "Response code: " + responseCode);
+            if (listener != null) {
+                listener.onUploaded((int) body.count);
+            }
+
+            return responseCode < 500 && responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT && responseCode != 429;
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to send location", e);
+            return false;
         }
     }
 
+    /**
+     * @return the size of the body in bytes, without sending it
+     */
+    public long measureBody() throws IOException {
+
+        CountingOutputStream body = new CountingOutputStream(new OutputStream() {
+
+            @Override
+            public void write(int b) {
+
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+
+            }
+        });
+        Writer writer = new BufferedWriter(new OutputStreamWriter(body, "utf-8"));
+        writeBody(writer);
+        writer.close();
+        return body.count;
+    }
+
     private HttpURLConnection setupConnection() throws IOException {
 
-        URL url = new URL(uploadUrl);
-        HttpURLConnection httpConnection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection httpConnection = (HttpURLConnection) uploadUrl.openConnection();
 
         httpConnection.setReadTimeout(10000);
         httpConnection.setConnectTimeout(15000);
         httpConnection.setRequestMethod("POST");
-        httpConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        httpConnection.setRequestProperty("Accept", "application/json");
-        addHeaders(httpConnection);
+        headers.applyTo(httpConnection);
         httpConnection.setDoOutput(true);
+        if (uploadFormat == UploadFormat.POLYLINE) {
+            // the body is encoded straight into the connection instead of being buffered by it
+            httpConnection.setChunkedStreamingMode(0);
+        }
 
         return httpConnection;
     }
 
-    private void addHeaders(HttpURLConnection httpConnection) {
-
-        if (headers != null) {
-
-            for (String headerName : headers.keySet()) {
+    void writeBody(Writer writer) throws IOException {
 
-                Object value = headers.get(headerName);
-                if (value != null) {
-                    httpConnection.setRequestProperty(headerName, value.toString());
-                }
-            }
+        switch (uploadFormat) {
+            case POLYLINE:
+                writePolylineBody(writer);
+                break;
+            default:
+                writer.write(generatePointsBody());
+                break;
         }
     }
 
-    private String generateBody() {
+    private String generatePointsBody() {
 
         JSONObject root = new JSONObject();
 
@@ -101,6 +188,12 @@ class SendLocations implements Runnable {
                 object.put("longitude", location.getLongitude());
                 object.put("accuracy", location.getAccuracy());
                 object.put("altitude", location.getAltitude());
+
+                Bundle extras = location.getExtras();
+                if (extras != null && extras.containsKey(LocationBacklog.EXTRA_DWELL_UNTIL)) {
+                    object.put("dwellUntil", dateFormat.format(new Date(extras.getLong(LocationBacklog.EXTRA_DWELL_UNTIL))));
+                    object.put("count", extras.getInt(LocationBacklog.EXTRA_COUNT));
+                }
                 locationsArray.put(object);
             }
 
@@ -113,6 +206,77 @@ class SendLocations implements Runnable {
         return root.toString();
     }
 
+    /**
+     * Writes the JSON body piece by piece, so a large batch is never held in memory as a whole. None of the values need
+     * escaping except the polyline strings, which {@link PolylineEncoder} escapes itself.
+     */
+    private void writePolylineBody(Writer writer) throws IOException {
+
+        DateFormat dateFormat = getDateFormat();
+
+        writer.write("{\"polyline\":\"");
+        PolylineEncoder.encodePath(locations, polylinePrecision, writer);
+        writer.write("\",\"precision\":");
+        writer.write(Integer.toString(polylinePrecision));
+        writer.write(",\"startTime\":\"");
+        writer.write(dateFormat.format(new Date(locations.get(0).getTime())));
+        writer.write("\",\"timeDeltas\":\"");
+        PolylineEncoder.encodeTimeDeltas(locations, writer);
+        writer.write('"');
+
+        if (geohashPrecision > 0) {
+            writer.write(",\"stays\":[");
+            writeStays(writer, dateFormat);
+            writer.write(']');
+        }
+
+        writer.write('}');
+    }
+
+    /**
+     * Collapses every run of consecutive locations within the same geohash cell into a single stay. Runs shorter than
+     * {@code stayMinSeconds}, e.g. driving slowly through the cell, are not stays.
+     */
+    private void writeStays(Writer writer, DateFormat dateFormat) throws IOException {
+
+        char[] cell = new char[geohashPrecision];
+        char[] runCell = new char[geohashPrecision];
+        int runStart = 0;
+        boolean first = true;
+
+        for (int i = 0, size = locations.size(); i <= size; i++) {
+
+            boolean sameCell = false;
+            if (i < size) {
+                Location location = locations.get(i);
+                Geohash.encode(location.getLatitude(), location.getLongitude(), geohashPrecision, cell);
+                sameCell = i > 0 && Arrays.equals(cell, runCell);
+            }
+            if (sameCell) {
+                continue;
+            }
+
+            int count = i - runStart;
+            if (count > 1 && locations.get(i - 1).getTime() - locations.get(runStart).getTime() >= stayMinMillis) {
+                writer.write(first ? "{\"geohash\":\"" : ",{\"geohash\":\"");
+                writer.write(runCell);
+                writer.write("\",\"from\":\"");
+                writer.write(dateFormat.format(new Date(locations.get(runStart).getTime())));
+                writer.write("\",\"to\":\"");
+                writer.write(dateFormat.format(new Date(locations.get(i - 1).getTime())));
+                writer.write("\",\"count\":");
+                writer.write(Integer.toString(count));
+                writer.write('}');
+                first = false;
+            }
+
+            char[] swap = runCell;
+            runCell = cell;
+            cell = swap;
+            runStart = i;
+        }
+    }
+
     private DateFormat getDateFormat() {
 
         @SuppressLint("SimpleDateFormat")
@@ -120,4 +284,28 @@ class SendLocations implements Runnable {
         format.setTimeZone(TimeZone.getTimeZone("UTC"));
         return format;
     }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
@@ -0,0 +1,232 @@
+package us.clubup.geolocation;
+
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Reads a recorded track one fix at a time, so arbitrarily long tracks can be replayed in constant memory.
+ * <p>
+ * Two formats are supported, chosen by file extension:
+ * <ul>
+ * <li>GPX - {@code trkpt} and {@code rtept} elements with optional {@code ele} and {@code time} children;</li>
+ * <li>CSV - {@code time,latitude,longitude[,accuracy[,altitude]]} lines with an optional header, where time is either
+ * epoch milliseconds or an ISO-8601 timestamp (see {@link #parseTime}).</li>
+ * </ul>
+ */
+abstract class TrackReader implements Closeable {
+
+    static final String PROVIDER = "replay";
+
+    private static final Pattern ISO_TIME =
+            Pattern.compile("(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2})(?:[.,](\\d+))?(?:Z|([+-])(\\d{2}):?(\\d{2}))?");
+
+    public static TrackReader open(File file) throws IOException {
+
+        Reader reader = new InputStreamReader(new FileInputStream(file), "utf-8");
+        if (file.getName().toLowerCase().endsWith(".gpx")) {
+            return new Gpx(reader);
+        }
+        else {
+            return new Csv(reader);
+        }
+    }
+
+    /**
+     * @return the next fix of the track or {@code null} when the track is over, its time is {@code 0} if the track has
+     * no timestamp for it
+     */
+    @Nullable
+    public abstract Location next() throws IOException;
+
+    /**
+     * Parses an ISO-8601 timestamp: seconds with an optional fraction of any length, {@code Z}, a {@code +hh:mm} or
+     * {@code -hhmm} style offset, or no zone at all, which is taken as UTC.
+     */
+    static long parseTime(String value) throws IOException {
+
+        Matcher matcher = ISO_TIME.matcher(value);
+        if (!matcher.matches()) {
+            throw new IOException("Invalid time: " + value);
+        }
+
+        long time;
+        try {
+            time = getDateFormat().parse(matcher.group(1)).getTime();
+        }
+        catch (ParseException e) {
+            throw new IOException("Invalid time: " + value, e);
+        }
+
+        String fraction = matcher.group(2);
+        if (fraction != null) {
+            // milliseconds, whatever the precision of the fraction
+            time += Integer.parseInt((fraction + "00").substring(0, 3));
+        }
+
+        String sign = matcher.group(3);
+        if (sign != null) {
+            long offset = (Integer.parseInt(matcher.group(4)) * 60L + Integer.parseInt(matcher.group(5))) * 60 * 1000;
+            time -= "+".equals(sign) ? offset : -offset;
+        }
+
+        return time;
+    }
+
+    private static DateFormat getDateFormat() {
+
+        @SuppressLint("SimpleDateFormat")
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private static class Csv extends TrackReader {
+
+        private final BufferedReader reader;
+        private boolean firstLine = true;
+
+        Csv(Reader reader) {
+
+            this.reader = new BufferedReader(reader);
+        }
+
+        @Nullable
+        @Override
+        public Location next() throws IOException {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] columns = line.split(",");
+                boolean isHeader = firstLine && !columns[0].isEmpty() && Character.isLetter(columns[0].charAt(0));
+                firstLine = false;
+                if (isHeader) {
+                    continue;
+                }
+                if (columns.length < 3) {
+                    throw new IOException("Invalid track line: " + line);
+                }
+
+                try {
+                    String time = columns[0].trim();
+                    Location location = new Location(PROVIDER);
+                    location.setTime(time.contains("T") ? parseTime(time) : Long.parseLong(time));
+                    location.setLatitude(Double.parseDouble(columns[1].trim()));
+                    location.setLongitude(Double.parseDouble(columns[2].trim()));
+                    if (columns.length > 3 && !columns[3].trim().isEmpty()) {
+                        location.setAccuracy(Float.parseFloat(columns[3].trim()));
+                    }
+                    if (columns.length > 4 && !columns[4].trim().isEmpty()) {
+                        location.setAltitude(Double.parseDouble(columns[4].trim()));
+                    }
+                    return location;
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Invalid track line: " + line, e);
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            reader.close();
+        }
+    }
+
+    private static class Gpx extends TrackReader {
+
+        private final Reader reader;
+        private final XmlPullParser parser;
+
+        Gpx(Reader reader) throws IOException {
+
+            this.reader = reader;
+            this.parser = Xml.newPullParser();
+            try {
+                parser.setInput(reader);
+            }
+            catch (XmlPullParserException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Nullable
+        @Override
+        public Location next() throws IOException {
+
+            try {
+                Location location = null;
+                String text = null;
+
+                for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+
+                    if (event == XmlPullParser.START_TAG) {
+                        String name = parser.getName();
+                        if ("trkpt".equals(name) || "rtept".equals(name)) {
+                            location = new Location(PROVIDER);
+                            location.setLatitude(Double.parseDouble(parser.getAttributeValue(null, "lat")));
+                            location.setLongitude(Double.parseDouble(parser.getAttributeValue(null, "lon")));
+                        }
+                        text = null;
+                    }
+                    else if (event == XmlPullParser.TEXT) {
+                        text = parser.getText();
+                    }
+                    else if (event == XmlPullParser.END_TAG && location != null) {
+                        String name = parser.getName();
+                        if ("ele".equals(name) && text != null) {
+                            location.setAltitude(Double.parseDouble(text.trim()));
+                        }
+                        else if ("time".equals(name) && text != null) {
+                            location.setTime(parseTime(text.trim()));
+                        }
+                        else if ("trkpt".equals(name) || "rtept".equals(name)) {
+                            return location;
+                        }
+                    }
+                }
+
+                return null;
+            }
+            catch (XmlPullParserException | NumberFormatException | NullPointerException e) {
+                throw new IOException("Invalid GPX track", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            reader.close();
+        }
+    }
+}
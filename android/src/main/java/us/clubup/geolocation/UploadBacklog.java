@@ -0,0 +1,104 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * Compacts the {@link LocationBacklog} and uploads it in chunks of at most {@code backlogChunkMaxBytes} bytes, pausing
+ * {@code backlogChunkIntervalSeconds} between the chunks so a device coming back online doesn't flood the server. The
+ * {@link BudgetGovernor} applies as well: the pause is stretched by the current stage, a chunk never exceeds the rest of
+ * the byte budgets and the upload stops once a budget is used up. Stops at the first failed chunk, the rest is retried on
+ * the next run.
+ */
+class UploadBacklog implements Runnable {
+
+    private static final String TAG = "UploadBacklog";
+
+    // starting guess of the size of one location in the JSON body, refined by every measured chunk
+    private static final int ESTIMATED_LOCATION_BYTES = 160;
+
+    private final LocationBacklog backlog;
+    private final GeolocationConfig config;
+    private final BudgetGovernor governor;
+    @Nullable
+    private final SendLocations.Listener listener;
+
+    public UploadBacklog(LocationBacklog backlog, GeolocationConfig config, BudgetGovernor governor,
+            @Nullable SendLocations.Listener listener) {
+
+        this.backlog = backlog;
+        this.config = config;
+        this.governor = governor;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+
+        boolean newestFirst = config.isBacklogNewestFirst();
+        long locationBytes = ESTIMATED_LOCATION_BYTES;
+        int uploaded = 0;
+
+        try {
+            backlog.compact(new BacklogCompactor(config.getBacklogDwellRadiusMeters(),
+                    config.getBacklogMinDwellSeconds() * 1000L,
+                    config.getBacklogMinSpacingSeconds() * 1000L));
+
+            while (true) {
+
+                if (uploaded > 0) {
+                    Thread.sleep(config.getBacklogChunkIntervalSeconds() * 1000L
+                                 * governor.getStage().intervalMultiplier);
+                }
+
+                long now = System.currentTimeMillis();
+                long maxBytes = Math.min(config.getBacklogChunkMaxBytes(), governor.getRemainingUploadBytes(now));
+                if (!governor.canUpload(now) || maxBytes < locationBytes) {
+                    Log.d(TAG, "Backlog upload paused by the upload budget");
+                    break;
+                }
+
+                List<Location> chunk = backlog.peekChunk((int) Math.max(1, maxBytes / locationBytes), newestFirst);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+
+                SendLocations sendLocations = new SendLocations(chunk, config, UploadFormat.POINTS, listener);
+                long bytes = sendLocations.measureBody();
+                while (bytes > maxBytes && chunk.size() > 1) {
+                    // keep the end of the chunk that peekChunk() takes from
+                    int count = (int) Math.max(1, Math.min(chunk.size() - 1, chunk.size() * maxBytes / bytes));
+                    chunk = newestFirst ? chunk.subList(chunk.size() - count, chunk.size()) : chunk.subList(0, count);
+                    sendLocations = new SendLocations(chunk, config, UploadFormat.POINTS, listener);
+                    bytes = sendLocations.measureBody();
+                }
+                if (bytes > maxBytes) {
+                    Log.d(TAG, "Backlog upload paused, a single location doesn't fit into " + maxBytes + " bytes");
+                    break;
+                }
+                locationBytes = Math.max(1, bytes / chunk.size());
+
+                if (!sendLocations.send()) {
+                    break;
+                }
+                backlog.removeChunk(chunk.size(), newestFirst);
+                uploaded += chunk.size();
+            }
+
+            Log.d(TAG, "Uploaded " + uploaded + " backlog locations");
+        }
+        catch (InterruptedException e) {
+            Log.d(TAG, "Backlog upload stopped after " + uploaded + " locations");
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Failed to upload the backlog", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package us.clubup.geolocation;
+
+
+/**
+ * Body format of the location uploads, see {@link SendLocations}.
+ */
+public enum UploadFormat {
+
+    /**
+     * Every location as a JSON object in the {@code points} array.
+     */
+    POINTS,
+
+    /**
+     * The batch as a Google encoded polyline with an encoded array of timestamp deltas, optionally followed by
+     * geohash-bucketed stays.
+     */
+    POLYLINE;
+
+    public static UploadFormat fromString(String value) {
+
+        for (UploadFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown upload format: " + value);
+    }
+}
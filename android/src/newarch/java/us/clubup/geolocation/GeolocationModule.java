@@ -0,0 +1,87 @@
+package us.clubup.geolocation;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * TurboModule generated from {@code src/NativeGeolocation.js}, used when the New Architecture is enabled.
+ */
+public class GeolocationModule extends NativeGeolocationSpec {
+
+    private final GeolocationModuleImpl impl;
+
+    public GeolocationModule(ReactApplicationContext reactContext) {
+
+        super(reactContext);
+        impl = new GeolocationModuleImpl(reactContext);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+
+        return GeolocationModuleImpl.NAME;
+    }
+
+    @Override
+    public void startTracking(String uploadUrl, String failureUrl, ReadableMap headers, double updatesIntervalSeconds,
+            double distanceFilter, Promise promise) {
+
+        impl.startTracking(uploadUrl, failureUrl, headers, (int) updatesIntervalSeconds, (int) distanceFilter, promise);
+    }
+
+    @Override
+    public void startReplay(String uploadUrl, String failureUrl, ReadableMap headers, double updatesIntervalSeconds,
+            double distanceFilter, String trackPath, double speed, Promise promise) {
+
+        impl.startReplay(uploadUrl, failureUrl, headers, (int) updatesIntervalSeconds, (int) distanceFilter, trackPath, speed,
+                promise);
+    }
+
+    @Override
+    public void setOptions(ReadableMap options, Promise promise) {
+
+        impl.setOptions(options, promise);
+    }
+
+    @Override
+    public void stopTracking(Promise promise) {
+
+        impl.stopTracking(promise);
+    }
+
+    @Override
+    public boolean installHistoryBinding() {
+
+        return impl.installHistoryBinding();
+    }
+
+    @Override
+    public void getHistory(double sinceTime, Promise promise) {
+
+        impl.getHistory(sinceTime, promise);
+    }
+
+    @Override
+    public void addListener(String eventName) {
+
+        impl.addListener(eventName);
+    }
+
+    @Override
+    public void removeListeners(double count) {
+
+        impl.removeListeners(count);
+    }
+
+    @Override
+    public void invalidate() {
+
+        super.invalidate();
+        impl.invalidate();
+    }
+}
@@ -0,0 +1,96 @@
+package us.clubup.geolocation;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * Legacy bridge module used when the New Architecture is disabled.
+ */
+public class GeolocationModule extends ReactContextBaseJavaModule {
+
+    private final GeolocationModuleImpl impl;
+
+    public GeolocationModule(ReactApplicationContext reactContext) {
+
+        super(reactContext);
+        impl = new GeolocationModuleImpl(reactContext);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+
+        return GeolocationModuleImpl.NAME;
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void startTracking(String uploadUrl, String failureUrl, ReadableMap headers, int updatesIntervalSeconds, int distanceFilter,
+            Promise promise) {
+
+        impl.startTracking(uploadUrl, failureUrl, headers, updatesIntervalSeconds, distanceFilter, promise);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void startReplay(String uploadUrl, String failureUrl, ReadableMap headers, int updatesIntervalSeconds, int distanceFilter,
+            String trackPath, double speed, Promise promise) {
+
+        impl.startReplay(uploadUrl, failureUrl, headers, updatesIntervalSeconds, distanceFilter, trackPath, speed, promise);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void setOptions(ReadableMap options, Promise promise) {
+
+        impl.setOptions(options, promise);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void stopTracking(Promise promise) {
+
+        impl.stopTracking(promise);
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    @SuppressWarnings("unused")
+    public boolean installHistoryBinding() {
+
+        return impl.installHistoryBinding();
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getHistory(double sinceTime, Promise promise) {
+
+        impl.getHistory(sinceTime, promise);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void addListener(String eventName) {
+
+        impl.addListener(eventName);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void removeListeners(int count) {
+
+        impl.removeListeners(count);
+    }
+
+    @Override
+    public void invalidate() {
+
+        super.invalidate();
+        impl.invalidate();
+    }
+}
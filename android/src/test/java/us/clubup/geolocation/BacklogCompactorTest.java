@@ -0,0 +1,142 @@
+package us.clubup.geolocation;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BacklogCompactorTest {
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+
+    private final BacklogCompactor compactor = new BacklogCompactor(50, 5 * MINUTE, MINUTE);
+
+    @Test
+    public void mergesDwell() throws IOException {
+
+        Records records = new Records();
+        for (int i = 0; i <= 10; i++) {
+            records.add(i * MINUTE, 50, 14);
+        }
+        records.add(11 * MINUTE, 50.01, 14);
+
+        Records compacted = records.compact(compactor);
+
+        assertEquals(2, compacted.count);
+        DataInputStream in = compacted.read();
+        assertRecord(in, 0, 11, 10 * MINUTE);
+        assertRecord(in, 11 * MINUTE, 1, 11 * MINUTE);
+    }
+
+    @Test
+    public void thinsMovingLocations() throws IOException {
+
+        Records records = new Records();
+        for (int i = 0; i < 10; i++) {
+            records.add(i * 20 * SECOND, 50 + i * 0.001, 14);
+        }
+
+        // 0, 60, 120 and 180 seconds
+        assertEquals(4, records.compact(compactor).count);
+    }
+
+    @Test
+    public void keepsInterleavedBatches() throws IOException {
+
+        // two batches of moving locations, the later one appended first
+        Records records = new Records();
+        for (int i = 5; i < 10; i++) {
+            records.add(i * 2 * MINUTE, 50 + i * 0.001, 14);
+        }
+        for (int i = 0; i < 5; i++) {
+            records.add(i * 2 * MINUTE, 50 + i * 0.001, 14);
+        }
+
+        assertEquals(10, records.compact(compactor).count);
+    }
+
+    @Test
+    public void mergesInterleavedDwell() throws IOException {
+
+        Records records = new Records();
+        for (int i = 5; i <= 10; i++) {
+            records.add(i * MINUTE, 50, 14);
+        }
+        for (int i = 0; i < 5; i++) {
+            records.add(i * MINUTE, 50, 14);
+        }
+
+        Records compacted = records.compact(compactor);
+
+        assertEquals(1, compacted.count);
+        assertRecord(compacted.read(), 0, 11, 10 * MINUTE);
+    }
+
+    @Test
+    public void keepsRunGoingWhenBufferIsFull() throws IOException {
+
+        // a long stay that only becomes a dwell after more thinned locations than fit into the buffer
+        BacklogCompactor compactor = new BacklogCompactor(50, 300 * MINUTE, MINUTE);
+        Records records = new Records();
+        for (int i = 0; i < 400; i++) {
+            records.add(i * MINUTE, 50, 14);
+        }
+
+        Records compacted = records.compact(compactor);
+
+        // the locations pushed out of the buffer before the run reached 300 minutes, then the dwell of the whole run
+        int evicted = 300 - BacklogCompactor.MAX_BUFFERED;
+        assertEquals(evicted + 1, compacted.count);
+        DataInputStream in = compacted.read();
+        for (int i = 0; i < evicted; i++) {
+            assertRecord(in, i * MINUTE, 1, i * MINUTE);
+        }
+        assertRecord(in, 0, 400, 399 * MINUTE);
+    }
+
+    private static void assertRecord(DataInputStream in, long time, int count, long endTime) throws IOException {
+
+        assertEquals(time, in.readLong());
+        in.skipBytes(8 + 8 + 8 + 4);
+        assertEquals(count, in.readInt());
+        assertEquals(endTime, in.readLong());
+    }
+
+    private static class Records {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        long count;
+
+        void add(long time, double latitude, double longitude) throws IOException {
+
+            LocationBacklog.writeRecord(out, time, latitude, longitude, 0, 10, 1, time);
+            count++;
+        }
+
+        Records compact(BacklogCompactor compactor) throws IOException {
+
+            Records compacted = new Records();
+            compacted.count = compactor.compact(read(), count, compacted.out);
+            return compacted;
+        }
+
+        DataInputStream read() {
+
+            return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package us.clubup.geolocation;
+
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class BudgetGovernorTest {
+
+    private static final long MINUTE = BudgetGovernor.MINUTE_MILLIS;
+    private static final long HOUR = BudgetGovernor.HOUR_MILLIS;
+    private static final long DAY = 24 * HOUR;
+
+    private static final int FULL_BATTERY = 100;
+
+    @Test
+    public void escalatesImmediatelyWithUsage() {
+
+        BudgetGovernor governor = new BudgetGovernor(100, 0, 0, 0, null);
+
+        governor.recordFixes(0, 50);
+        assertEquals(BudgetGovernor.Stage.REDUCED, governor.evaluate(0, FULL_BATTERY, false));
+
+        governor.recordFixes(MINUTE, 25);
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(MINUTE, FULL_BATTERY, false));
+
+        governor.recordFixes(2 * MINUTE, 25);
+        assertEquals(BudgetGovernor.Stage.MINIMAL, governor.evaluate(2 * MINUTE, FULL_BATTERY, false));
+    }
+
+    @Test
+    public void relaxesOneStagePerInterval() {
+
+        BudgetGovernor governor = new BudgetGovernor(100, 0, 0, 0, null);
+        governor.recordFixes(0, 100);
+        long now = 59 * MINUTE;
+        assertEquals(BudgetGovernor.Stage.MINIMAL, governor.evaluate(now, FULL_BATTERY, false));
+
+        // the fixes have left the window, but relaxing waits for the interval
+        assertEquals(0, governor.getUsage(HOUR), 0);
+        assertEquals(BudgetGovernor.Stage.MINIMAL, governor.evaluate(HOUR, FULL_BATTERY, false));
+
+        now += BudgetGovernor.RELAX_INTERVAL_MILLIS;
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(now, FULL_BATTERY, false));
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(now + MINUTE, FULL_BATTERY, false));
+
+        now += BudgetGovernor.RELAX_INTERVAL_MILLIS;
+        assertEquals(BudgetGovernor.Stage.REDUCED, governor.evaluate(now, FULL_BATTERY, false));
+
+        now += BudgetGovernor.RELAX_INTERVAL_MILLIS;
+        assertEquals(BudgetGovernor.Stage.NORMAL, governor.evaluate(now, FULL_BATTERY, false));
+    }
+
+    @Test
+    public void degradesOnLowBattery() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 0, 0, null);
+
+        assertEquals(BudgetGovernor.Stage.NORMAL, governor.evaluate(0, BudgetGovernor.LOW_BATTERY_PERCENT + 1, false));
+        assertEquals(BudgetGovernor.Stage.REDUCED, governor.evaluate(0, BudgetGovernor.LOW_BATTERY_PERCENT, false));
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(0, BudgetGovernor.CRITICAL_BATTERY_PERCENT, false));
+    }
+
+    @Test
+    public void chargingIgnoresBatteryLevel() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 0, 0, null);
+        assertEquals(BudgetGovernor.Stage.NORMAL, governor.evaluate(0, 5, true));
+
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(0, 5, false));
+        long now = BudgetGovernor.RELAX_INTERVAL_MILLIS;
+        assertEquals(BudgetGovernor.Stage.REDUCED, governor.evaluate(now, 5, true));
+    }
+
+    @Test
+    public void blocksUploadsWhenByteBudgetIsUsedUp() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 1000, 0, null);
+
+        governor.recordUpload(0, 999);
+        assertTrue(governor.canUpload(0));
+
+        governor.recordUpload(MINUTE, 1);
+        assertFalse(governor.canUpload(MINUTE));
+        assertTrue(governor.canUpload(HOUR + MINUTE));
+    }
+
+    @Test
+    public void dailyByteBudgetExpiresAcrossDayBoundary() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 0, 5000, null);
+
+        governor.recordUpload(HOUR, 5000);
+        assertFalse(governor.canUpload(2 * HOUR));
+        assertFalse(governor.canUpload(DAY));
+        assertTrue(governor.canUpload(DAY + HOUR));
+    }
+
+    @Test
+    public void minimalStageStretchesIntervalToByteBudget() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 10_000, 0, null);
+        for (int i = 0; i < 10; i++) {
+            governor.recordUpload(i * MINUTE, 1000);
+        }
+        assertEquals(BudgetGovernor.Stage.MINIMAL, governor.evaluate(10 * MINUTE, FULL_BATTERY, false));
+
+        // 1000 bytes per upload leaves 10 uploads per hour, each carrying a batch of 8 fixes
+        long interval = governor.getIntervalMillis(1000, 10 * MINUTE);
+        assertEquals(HOUR / 10 / BudgetGovernor.Stage.MINIMAL.batchSize, interval);
+    }
+
+    @Test
+    public void minimalStageStretchesIntervalToFixBudget() {
+
+        BudgetGovernor governor = new BudgetGovernor(60, 0, 0, 0, null);
+        governor.recordFixes(0, 60);
+        assertEquals(BudgetGovernor.Stage.MINIMAL, governor.evaluate(0, FULL_BATTERY, false));
+
+        assertEquals(MINUTE, governor.getIntervalMillis(1000, 0));
+    }
+
+    @Test
+    public void otherStagesMultiplyInterval() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 0, 0, null);
+        governor.evaluate(0, BudgetGovernor.LOW_BATTERY_PERCENT, false);
+
+        assertEquals(2000, governor.getIntervalMillis(1000, 0));
+    }
+
+    @Test
+    public void restoresUsageFromStore() {
+
+        MemoryStore store = new MemoryStore();
+        BudgetGovernor governor = new BudgetGovernor(100, 10, 0, 0, store);
+        governor.recordFixes(0, 40);
+        governor.recordUpload(0, 500);
+        governor.flush();
+
+        BudgetGovernor restored = new BudgetGovernor(100, 10, 0, 0, store);
+        assertEquals(0.4f, restored.getUsage(MINUTE), 0.0001f);
+
+        restored.recordUpload(MINUTE, 500);
+        restored.flush();
+        assertFalse(new BudgetGovernor(0, 2, 0, 0, store).canUpload(MINUTE));
+        assertTrue(new BudgetGovernor(0, 2, 0, 0, store).canUpload(HOUR + MINUTE));
+    }
+
+    @Test
+    public void savesAtMostOncePerMinute() {
+
+        MemoryStore store = new MemoryStore();
+        BudgetGovernor governor = new BudgetGovernor(100, 10, 0, 0, store);
+
+        governor.recordFixes(0, 1);
+        assertEquals(1, store.saves);
+        assertEquals(4, store.values.size());
+
+        governor.recordFixes(MINUTE / 2, 1);
+        governor.recordUpload(MINUTE / 2, 500);
+        assertEquals(1, store.saves);
+
+        governor.recordFixes(MINUTE, 1);
+        assertEquals(2, store.saves);
+
+        governor.flush();
+        assertEquals(2, store.saves);
+
+        governor.recordUpload(MINUTE, 500);
+        governor.flush();
+        assertEquals(3, store.saves);
+        assertEquals(0.2f, new BudgetGovernor(100, 10, 0, 0, store).getUsage(MINUTE), 0.0001f);
+    }
+
+    @Test
+    public void keepsFormatOnLowBatteryWithoutBudgets() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 0, 0, null);
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(0, BudgetGovernor.CRITICAL_BATTERY_PERCENT, false));
+
+        assertEquals(UploadFormat.POINTS, governor.getUploadFormat(UploadFormat.POINTS, false));
+        assertEquals(UploadFormat.POINTS, governor.getUploadFormat(UploadFormat.POINTS, true));
+    }
+
+    @Test
+    public void switchesToCompactFormatOnlyWhenAllowed() {
+
+        BudgetGovernor governor = new BudgetGovernor(0, 0, 1000, 0, null);
+        governor.recordUpload(0, 750);
+        assertEquals(BudgetGovernor.Stage.LOW, governor.evaluate(0, FULL_BATTERY, false));
+
+        assertEquals(UploadFormat.POINTS, governor.getUploadFormat(UploadFormat.POINTS, false));
+        assertEquals(UploadFormat.POLYLINE, governor.getUploadFormat(UploadFormat.POINTS, true));
+
+        // the configured format stays as it is below the compact stages
+        BudgetGovernor reduced = new BudgetGovernor(0, 0, 1000, 0, null);
+        reduced.recordUpload(0, 500);
+        assertEquals(BudgetGovernor.Stage.REDUCED, reduced.evaluate(0, FULL_BATTERY, false));
+        assertEquals(UploadFormat.POINTS, reduced.getUploadFormat(UploadFormat.POINTS, true));
+        assertEquals(UploadFormat.POLYLINE, reduced.getUploadFormat(UploadFormat.POLYLINE, false));
+    }
+
+    private static class MemoryStore implements BudgetGovernor.Store {
+
+        private final Map<String, String> values = new HashMap<>();
+        private int saves;
+
+        @Nullable
+        @Override
+        public String get(String key) {
+
+            return values.get(key);
+        }
+
+        @Override
+        public void put(Map<String, String> values) {
+
+            this.values.putAll(values);
+            saves++;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package us.clubup.geolocation;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class GeohashTest {
+
+    @Test
+    public void encodesKnownLocation() {
+
+        // the example of the original geohash.org announcement
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void truncatesToPrecision() {
+
+        assertEquals("u4pru", Geohash.encode(57.64911, 10.40744, 5));
+    }
+
+    @Test
+    public void encodesCorners() {
+
+        assertEquals("000000000000", Geohash.encode(-90, -180, Geohash.MAX_PRECISION));
+        assertEquals("zzzzzzzzzzzz", Geohash.encode(90, 180, Geohash.MAX_PRECISION));
+        assertEquals("s0000", Geohash.encode(0, 0, 5));
+    }
+}
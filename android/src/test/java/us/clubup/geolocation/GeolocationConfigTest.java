@@ -0,0 +1,108 @@
+package us.clubup.geolocation;
+
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GeolocationConfigTest {
+
+    private static final String UPLOAD_URL = "https://example.com/locations";
+
+    @Test
+    public void keepsOptionsAcrossParcel() {
+
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer token");
+
+        GeolocationConfig config = new GeolocationConfig.Builder(UPLOAD_URL, "https://example.com/failures", headers)
+                .setUpdatesIntervalSeconds(60)
+                .setDistanceFilter(10)
+                .setReplayTrack("/tmp/track.gpx", 0)
+                .setUploadFormat(UploadFormat.POLYLINE)
+                .setPolylinePrecision(6)
+                .setGeohashPrecision(7)
+                .setStayMinSeconds(120)
+                .setMaxFixesPerHour(60)
+                .setMaxUploadsPerHour(12)
+                .setMaxUploadBytesPerHour(64 * 1024)
+                .setMaxUploadBytesPerDay(1024 * 1024)
+                .setAllowCompactEncoding(true)
+                .setBacklogDwellRadiusMeters(25)
+                .setBacklogMinDwellSeconds(600)
+                .setBacklogMinSpacingSeconds(30)
+                .setBacklogChunkMaxBytes(1024)
+                .setBacklogChunkIntervalSeconds(5)
+                .setBacklogNewestFirst(false)
+                .build();
+
+        Parcel parcel = Parcel.obtain();
+        config.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        GeolocationConfig copy = GeolocationConfig.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(UPLOAD_URL, copy.getUploadEndpoint().toString());
+        assertEquals("https://example.com/failures", copy.getFailureUrl());
+        assertEquals(60, copy.getUpdatesIntervalSeconds());
+        assertEquals(10, copy.getDistanceFilter());
+        assertEquals("/tmp/track.gpx", copy.getReplayTrackPath());
+        assertEquals(0, copy.getReplaySpeed(), 0);
+        assertEquals(UploadFormat.POLYLINE, copy.getUploadFormat());
+        assertEquals(6, copy.getPolylinePrecision());
+        assertEquals(7, copy.getGeohashPrecision());
+        assertEquals(120, copy.getStayMinSeconds());
+        assertEquals(60, copy.getMaxFixesPerHour());
+        assertEquals(12, copy.getMaxUploadsPerHour());
+        assertEquals(64 * 1024, copy.getMaxUploadBytesPerHour());
+        assertEquals(1024 * 1024, copy.getMaxUploadBytesPerDay());
+        assertTrue(copy.isAllowCompactEncoding());
+        assertEquals(25, copy.getBacklogDwellRadiusMeters(), 0);
+        assertEquals(600, copy.getBacklogMinDwellSeconds());
+        assertEquals(30, copy.getBacklogMinSpacingSeconds());
+        assertEquals(1024, copy.getBacklogChunkMaxBytes());
+        assertEquals(5, copy.getBacklogChunkIntervalSeconds());
+        assertFalse(copy.isBacklogNewestFirst());
+    }
+
+    @Test
+    public void usesDefaults() {
+
+        GeolocationConfig config = new GeolocationConfig.Builder(UPLOAD_URL, null, null).build();
+
+        assertEquals(5 * 60, config.getUpdatesIntervalSeconds());
+        assertNull(config.getReplayTrackPath());
+        assertEquals(UploadFormat.POINTS, config.getUploadFormat());
+        assertFalse(config.isAllowCompactEncoding());
+        assertEquals(64 * 1024, config.getBacklogChunkMaxBytes());
+        assertTrue(config.isBacklogNewestFirst());
+    }
+
+    @Test
+    public void acceptsInvalidFailureUrl() {
+
+        GeolocationConfig config = new GeolocationConfig.Builder(UPLOAD_URL, "not a url", null).build();
+
+        assertEquals("not a url", config.getFailureUrl());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidUploadUrl() {
+
+        new GeolocationConfig.Builder("ftp://example.com/locations", null, null).build();
+    }
+}
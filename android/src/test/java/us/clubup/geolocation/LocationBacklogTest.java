@@ -0,0 +1,134 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LocationBacklogTest {
+
+    private static final long SECOND = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private LocationBacklog backlog;
+
+    // keeps every location: no dwells, no thinning
+    private final BacklogCompactor compactor = new BacklogCompactor(0, Long.MAX_VALUE, 0);
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = folder.newFolder();
+        backlog = new LocationBacklog(directory);
+    }
+
+    @Test
+    public void appendsInterleavedBatchesInCollectionOrder() throws IOException {
+
+        long first = backlog.reserve();
+        long second = backlog.reserve();
+        long third = backlog.reserve();
+        long fourth = backlog.reserve();
+
+        // the uploads complete in a different order than the batches were collected
+        backlog.complete(third, createBatch(20, 5));
+        assertTrue(backlog.isEmpty());
+        backlog.complete(second, null);
+        assertTrue(backlog.isEmpty());
+        backlog.complete(first, createBatch(0, 5));
+        assertFalse(backlog.isEmpty());
+        backlog.complete(fourth, createBatch(30, 5));
+
+        backlog.compact(compactor);
+        List<Location> locations = backlog.peekChunk(100, false);
+
+        assertEquals(15, locations.size());
+        for (int i = 1; i < locations.size(); i++) {
+            assertTrue(locations.get(i).getTime() > locations.get(i - 1).getTime());
+        }
+        assertEquals(0, locations.get(0).getTime());
+        assertEquals(34 * SECOND, locations.get(14).getTime());
+    }
+
+    @Test
+    public void chunksFromEitherEnd() throws IOException {
+
+        backlog.complete(backlog.reserve(), createBatch(0, 10));
+        backlog.compact(compactor);
+
+        List<Location> newest = backlog.peekChunk(3, true);
+        assertEquals(7 * SECOND, newest.get(0).getTime());
+        assertEquals(9 * SECOND, newest.get(2).getTime());
+        backlog.removeChunk(newest.size(), true);
+
+        List<Location> oldest = backlog.peekChunk(3, false);
+        assertEquals(0, oldest.get(0).getTime());
+        backlog.removeChunk(oldest.size(), false);
+
+        assertEquals(4, backlog.peekChunk(100, false).size());
+        backlog.removeChunk(4, false);
+        assertTrue(backlog.isEmpty());
+    }
+
+    @Test
+    public void dropsPartialRecordBeforeAppending() throws IOException {
+
+        backlog.complete(backlog.reserve(), createBatch(0, 2));
+
+        // a crash in the middle of the next append
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "geolocation_backlog"), true)) {
+            out.write(new byte[LocationBacklog.RECORD_SIZE / 2]);
+        }
+
+        backlog.complete(backlog.reserve(), createBatch(2, 2));
+        backlog.compact(compactor);
+        List<Location> locations = backlog.peekChunk(100, false);
+
+        assertEquals(4, locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            assertEquals(i * SECOND, locations.get(i).getTime());
+            assertEquals(50 + i * 0.001, locations.get(i).getLatitude(), 0);
+            assertEquals(14, locations.get(i).getLongitude(), 0);
+            assertEquals(10, locations.get(i).getAccuracy(), 0);
+        }
+    }
+
+    /**
+     * @return {@code count} locations a second and 100 meters apart, starting at {@code startSecond}
+     */
+    private static List<Location> createBatch(int startSecond, int count) {
+
+        List<Location> locations = new ArrayList<>();
+        for (int i = startSecond; i < startSecond + count; i++) {
+            Location location = new Location("test");
+            location.setTime(i * SECOND);
+            location.setLatitude(50 + i * 0.001);
+            location.setLongitude(14);
+            location.setAccuracy(10);
+            locations.add(location);
+        }
+        return locations;
+    }
+}
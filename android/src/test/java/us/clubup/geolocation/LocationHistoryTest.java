@@ -0,0 +1,90 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LocationHistoryTest {
+
+    @Test
+    public void copiesTimeRangeIntoDirectBuffer() {
+
+        LocationHistory history = new LocationHistory(10);
+        history.addAll(createLocations(1, 5));
+
+        ByteBuffer buffer = history.toDirectBuffer(2, 4);
+
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        assertTimes(buffer, 3, 4);
+    }
+
+    @Test
+    public void copiesAcrossRingWrap() {
+
+        LocationHistory history = new LocationHistory(4);
+        history.addAll(createLocations(1, 7));
+
+        // 1 to 3 are dropped, 4 to 7 wrap around the end of the ring
+        assertTimes(history.toDirectBuffer(0, Long.MAX_VALUE), 4, 5, 6, 7);
+        assertTimes(history.toDirectBuffer(5, Long.MAX_VALUE), 6, 7);
+    }
+
+    @Test
+    public void packsLocationValues() {
+
+        LocationHistory history = new LocationHistory(4);
+        Location location = new Location("test");
+        location.setTime(1000);
+        location.setLatitude(50.5);
+        location.setLongitude(14.25);
+        location.setAccuracy(8);
+        location.setAltitude(300);
+        List<Location> locations = new ArrayList<>();
+        locations.add(location);
+        history.addAll(locations);
+
+        ByteBuffer buffer = history.toDirectBuffer(0, Long.MAX_VALUE);
+
+        assertEquals(LocationHistory.STRIDE * 8, buffer.capacity());
+        assertEquals(1000, buffer.getDouble(0), 0);
+        assertEquals(50.5, buffer.getDouble(8), 0);
+        assertEquals(14.25, buffer.getDouble(16), 0);
+        assertEquals(8, buffer.getDouble(24), 0);
+        assertEquals(300, buffer.getDouble(32), 0);
+    }
+
+    private static void assertTimes(ByteBuffer buffer, long... times) {
+
+        assertEquals(times.length * LocationHistory.STRIDE * 8, buffer.capacity());
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(times[i], buffer.getDouble(i * LocationHistory.STRIDE * 8), 0);
+        }
+    }
+
+    private static List<Location> createLocations(long fromTime, long toTime) {
+
+        List<Location> locations = new ArrayList<>();
+        for (long time = fromTime; time <= toTime; time++) {
+            Location location = new Location("test");
+            location.setTime(time);
+            locations.add(location);
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,84 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PolylineEncoderTest {
+
+    @Test
+    public void encodesReferencePath() throws IOException {
+
+        // the example of the Encoded Polyline Algorithm documentation
+        List<Location> locations = new ArrayList<>();
+        locations.add(createLocation(38.5, -120.2, 0));
+        locations.add(createLocation(40.7, -120.95, 0));
+        locations.add(createLocation(43.252, -126.453, 0));
+
+        StringWriter out = new StringWriter();
+        PolylineEncoder.encodePath(locations, 5, out);
+
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", out.toString());
+    }
+
+    @Test
+    public void encodesWithPrecision() throws IOException {
+
+        List<Location> locations = new ArrayList<>();
+        locations.add(createLocation(38.5, -120.2, 0));
+
+        StringWriter out = new StringWriter();
+        PolylineEncoder.encodePath(locations, 6, out);
+
+        // 38500000 and -120200000
+        assertEquals("_izlhA~rlgdF", out.toString());
+    }
+
+    @Test
+    public void escapesBackslash() throws IOException {
+
+        // -15 encodes to the single char 92, a backslash
+        StringWriter out = new StringWriter();
+        PolylineEncoder.encodeValue(-15, out);
+
+        assertEquals("\\\\", out.toString());
+    }
+
+    @Test
+    public void encodesTimeDeltasInSeconds() throws IOException {
+
+        List<Location> locations = new ArrayList<>();
+        locations.add(createLocation(0, 0, 1_000_000));
+        locations.add(createLocation(0, 0, 1_300_000));
+        locations.add(createLocation(0, 0, 1_600_999));
+
+        StringWriter out = new StringWriter();
+        PolylineEncoder.encodeTimeDeltas(locations, out);
+
+        // 0, 300 and 300 seconds
+        assertEquals("?wQwQ", out.toString());
+    }
+
+    private static Location createLocation(double latitude, double longitude, long time) {
+
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+        return location;
+    }
+}
@@ -0,0 +1,83 @@
+package us.clubup.geolocation;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class RateWindowTest {
+
+    private static final long MINUTE = BudgetGovernor.MINUTE_MILLIS;
+    private static final long HOUR = BudgetGovernor.HOUR_MILLIS;
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    public void sumsWithinWindow() {
+
+        RateWindow window = new RateWindow(MINUTE, 60);
+        window.add(0, 1);
+        window.add(30 * MINUTE, 2);
+        window.add(59 * MINUTE, 3);
+
+        assertEquals(6, window.sum(59 * MINUTE));
+    }
+
+    @Test
+    public void expiresAcrossHourBoundary() {
+
+        RateWindow window = new RateWindow(MINUTE, 60);
+        window.add(10 * MINUTE, 5);
+        window.add(50 * MINUTE, 7);
+
+        assertEquals(12, window.sum(69 * MINUTE));
+        assertEquals(7, window.sum(70 * MINUTE));
+        assertEquals(0, window.sum(110 * MINUTE));
+    }
+
+    @Test
+    public void expiresAcrossDayBoundary() {
+
+        RateWindow window = new RateWindow(HOUR, 24);
+        window.add(HOUR, 100);
+        window.add(23 * HOUR, 50);
+
+        assertEquals(150, window.sum(DAY));
+        assertEquals(50, window.sum(DAY + HOUR));
+        assertEquals(0, window.sum(2 * DAY));
+    }
+
+    @Test
+    public void reusedBucketStartsFromZero() {
+
+        RateWindow window = new RateWindow(MINUTE, 60);
+        window.add(5 * MINUTE, 4);
+        window.add(65 * MINUTE, 1);
+
+        assertEquals(1, window.sum(65 * MINUTE));
+    }
+
+    @Test
+    public void restoresSavedBuckets() {
+
+        RateWindow window = new RateWindow(MINUTE, 60);
+        window.add(10 * MINUTE, 5);
+        window.add(20 * MINUTE, 7);
+
+        RateWindow restored = new RateWindow(MINUTE, 60);
+        restored.restore(window.save());
+
+        assertEquals(12, restored.sum(20 * MINUTE));
+        assertEquals(7, restored.sum(75 * MINUTE));
+    }
+
+    @Test
+    public void restoreKeepsNewerBucketsAndSkipsMalformedOnes() {
+
+        RateWindow window = new RateWindow(MINUTE, 60);
+        window.add(65 * MINUTE, 3);
+        window.restore("5:100;x:1;7;");
+
+        assertEquals(3, window.sum(65 * MINUTE));
+    }
+}
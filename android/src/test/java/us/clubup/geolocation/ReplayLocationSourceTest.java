@@ -0,0 +1,157 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+import android.os.Looper;
+
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ReplayLocationSourceTest {
+
+    private static final long TIME = 1682935200000L;
+    private static final long SECOND = 1000;
+
+    // about 11 meters
+    private static final double STEP = 0.0001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesFastestIntervalAndMaxWaitTime() throws Exception {
+
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            csv.append(TIME + i * SECOND).append(',').append(50 + i * STEP).append(",14\n");
+        }
+
+        List<List<Location>> batches = replay(write("track.csv", csv.toString()), LocationRequest.create()
+                .setInterval(SECOND)
+                .setFastestInterval(2 * SECOND)
+                .setMaxWaitTime(4 * SECOND), 5);
+
+        assertEquals(3, batches.size());
+        assertTimes(batches.get(0), 0, 2);
+        assertTimes(batches.get(1), 4, 6);
+        assertTimes(batches.get(2), 8);
+    }
+
+    @Test
+    public void appliesSmallestDisplacement() throws Exception {
+
+        String csv = (TIME) + ",50,14\n"
+                     + (TIME + SECOND) + ",50,14\n"
+                     + (TIME + 2 * SECOND) + "," + (50 + STEP) + ",14\n"
+                     + (TIME + 3 * SECOND) + "," + (50 + STEP) + ",14\n"
+                     + (TIME + 4 * SECOND) + "," + (50 + 2 * STEP) + ",14\n";
+
+        List<List<Location>> batches = replay(write("track.csv", csv), LocationRequest.create()
+                .setInterval(SECOND)
+                .setFastestInterval(0)
+                .setSmallestDisplacement(5), 3);
+
+        assertEquals(3, batches.size());
+        assertTimes(batches.get(0), 0);
+        assertTimes(batches.get(1), 2);
+        assertTimes(batches.get(2), 4);
+    }
+
+    @Test
+    public void synthesizesTimesOfTrackWithoutTimestamps() throws Exception {
+
+        File track = write("route.gpx",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<gpx version=\"1.1\"><rte>\n"
+                + "<rtept lat=\"50\" lon=\"14\"/>\n"
+                + "<rtept lat=\"50.001\" lon=\"14\"/>\n"
+                + "<rtept lat=\"50.002\" lon=\"14\"/>\n"
+                + "</rte></gpx>\n");
+
+        List<List<Location>> batches = replay(track, LocationRequest.create()
+                .setInterval(5 * SECOND)
+                .setFastestInterval(5 * SECOND)
+                .setMaxWaitTime(5 * SECOND), 3);
+
+        List<Location> locations = new ArrayList<>();
+        for (List<Location> batch : batches) {
+            locations.addAll(batch);
+        }
+        assertEquals(3, locations.size());
+        assertEquals(5 * SECOND, locations.get(1).getTime() - locations.get(0).getTime());
+        assertEquals(5 * SECOND, locations.get(2).getTime() - locations.get(1).getTime());
+    }
+
+    /**
+     * Replays the track as fast as possible and collects the delivered batches until {@code expectedLocations} arrive.
+     */
+    private static List<List<Location>> replay(File track, LocationRequest request, int expectedLocations)
+            throws InterruptedException {
+
+        List<List<Location>> batches = new ArrayList<>();
+        int[] received = new int[1];
+        LocationCallback callback = new LocationCallback() {
+
+            @Override
+            public void onLocationResult(LocationResult result) {
+
+                batches.add(result.getLocations());
+                received[0] += result.getLocations().size();
+            }
+        };
+
+        ReplayLocationSource source = new ReplayLocationSource(track, 0);
+        source.requestLocationUpdates(request, callback, Looper.getMainLooper());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received[0] < expectedLocations && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        // nothing more is expected, but give an extra batch the chance to show up
+        Thread.sleep(100);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        source.removeLocationUpdates(callback);
+        return batches;
+    }
+
+    private static void assertTimes(List<Location> batch, long... seconds) {
+
+        assertEquals(seconds.length, batch.size());
+        for (int i = 0; i < seconds.length; i++) {
+            assertEquals(TIME + seconds[i] * SECOND, batch.get(i).getTime());
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+
+        File file = new File(folder.getRoot(), name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "utf-8")) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
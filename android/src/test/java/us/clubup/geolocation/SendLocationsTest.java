@@ -0,0 +1,82 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SendLocationsTest {
+
+    private static final long TIME = 1608025526000L; // 2020-12-15T09:45:26Z
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void writesPolylineBody() throws IOException, JSONException {
+
+        List<Location> locations = new ArrayList<>();
+        locations.add(createLocation(52.52, 13.405, TIME));
+        locations.add(createLocation(52.52005, 13.40505, TIME + 5 * MINUTE));
+        locations.add(createLocation(52.52001, 13.40501, TIME + 10 * MINUTE));
+
+        JSONObject body = writePolylineBody(locations);
+
+        assertEquals("_yp_IgdypAIIFF", body.getString("polyline"));
+        assertEquals(5, body.getInt("precision"));
+        assertEquals("2020-12-15T09:45:26Z", body.getString("startTime"));
+        assertEquals("?wQwQ", body.getString("timeDeltas"));
+
+        JSONArray stays = body.getJSONArray("stays");
+        assertEquals(1, stays.length());
+        assertEquals("u33dc0c", stays.getJSONObject(0).getString("geohash"));
+        assertEquals("2020-12-15T09:55:26Z", stays.getJSONObject(0).getString("to"));
+        assertEquals(3, stays.getJSONObject(0).getInt("count"));
+    }
+
+    @Test
+    public void skipsShortRunsInCell() throws IOException, JSONException {
+
+        // driving slowly through the cell, 20 seconds apart
+        List<Location> locations = new ArrayList<>();
+        locations.add(createLocation(52.52, 13.405, TIME));
+        locations.add(createLocation(52.52005, 13.40505, TIME + 20 * 1000));
+        locations.add(createLocation(52.53, 13.42, TIME + 40 * 1000));
+
+        assertEquals(0, writePolylineBody(locations).getJSONArray("stays").length());
+    }
+
+    private static JSONObject writePolylineBody(List<Location> locations) throws IOException, JSONException {
+
+        GeolocationConfig config = new GeolocationConfig.Builder("https://example.com/locations", null, null)
+                .setGeohashPrecision(7)
+                .build();
+
+        StringWriter out = new StringWriter();
+        new SendLocations(locations, config, UploadFormat.POLYLINE, null).writeBody(out);
+        return new JSONObject(out.toString());
+    }
+
+    private static Location createLocation(double latitude, double longitude, long time) {
+
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+        return location;
+    }
+}
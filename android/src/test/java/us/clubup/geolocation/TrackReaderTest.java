@@ -0,0 +1,153 @@
+package us.clubup.geolocation;
+
+
+import android.location.Location;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TrackReaderTest {
+
+    // 2023-05-01T10:00:00Z
+    private static final long TIME = 1682935200000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesTimeFractionsAndOffsets() throws IOException {
+
+        assertEquals(TIME, TrackReader.parseTime("2023-05-01T10:00:00Z"));
+        assertEquals(TIME + 123, TrackReader.parseTime("2023-05-01T10:00:00.123Z"));
+        assertEquals(TIME + 123, TrackReader.parseTime("2023-05-01T10:00:00.123456Z"));
+        assertEquals(TIME + 500, TrackReader.parseTime("2023-05-01T10:00:00.5Z"));
+        assertEquals(TIME, TrackReader.parseTime("2023-05-01T12:00:00+02:00"));
+        assertEquals(TIME, TrackReader.parseTime("2023-05-01T06:30:00-0330"));
+        assertEquals(TIME + 250, TrackReader.parseTime("2023-05-01T11:00:00.25+01:00"));
+        assertEquals(TIME, TrackReader.parseTime("2023-05-01T10:00:00"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidTime() throws IOException {
+
+        TrackReader.parseTime("2023-05-01 10:00");
+    }
+
+    @Test
+    public void readsCsvWithHeader() throws IOException {
+
+        File track = write("track.csv",
+                "time,latitude,longitude,accuracy,altitude\n"
+                + "# comment\n"
+                + "\n"
+                + TIME + ",50.1,14.2,5,300\n"
+                + "2023-05-01T12:00:01.5+02:00,50.2,14.3\n");
+
+        try (TrackReader reader = TrackReader.open(track)) {
+
+            Location first = reader.next();
+            assertEquals(TIME, first.getTime());
+            assertEquals(50.1, first.getLatitude(), 0);
+            assertEquals(14.2, first.getLongitude(), 0);
+            assertEquals(5, first.getAccuracy(), 0);
+            assertEquals(300, first.getAltitude(), 0);
+
+            Location second = reader.next();
+            assertEquals(TIME + 1500, second.getTime());
+            assertEquals(50.2, second.getLatitude(), 0);
+            assertEquals(14.3, second.getLongitude(), 0);
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void readsCsvWithoutHeader() throws IOException {
+
+        File track = write("track.csv", TIME + ",50.1,14.2\n");
+
+        try (TrackReader reader = TrackReader.open(track)) {
+            assertEquals(TIME, reader.next().getTime());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsShortCsvLine() throws IOException {
+
+        try (TrackReader reader = TrackReader.open(write("track.csv", TIME + ",50.1\n"))) {
+            reader.next();
+        }
+    }
+
+    @Test
+    public void readsGpxTrack() throws IOException {
+
+        File track = write("track.gpx",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<gpx version=\"1.1\"><trk><trkseg>\n"
+                + "<trkpt lat=\"50.1\" lon=\"14.2\"><ele>300.5</ele><time>2023-05-01T10:00:00Z</time></trkpt>\n"
+                + "<trkpt lat=\"50.2\" lon=\"14.3\"><time>2023-05-01T12:00:01.250+02:00</time></trkpt>\n"
+                + "</trkseg></trk></gpx>\n");
+
+        try (TrackReader reader = TrackReader.open(track)) {
+
+            Location first = reader.next();
+            assertEquals(TIME, first.getTime());
+            assertEquals(300.5, first.getAltitude(), 0);
+
+            assertEquals(TIME + 1250, reader.next().getTime());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void readsGpxRouteWithoutTime() throws IOException {
+
+        File track = write("route.gpx",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<gpx version=\"1.1\"><rte>\n"
+                + "<rtept lat=\"50.1\" lon=\"14.2\"><name>Start</name></rtept>\n"
+                + "<rtept lat=\"50.2\" lon=\"14.3\"/>\n"
+                + "</rte></gpx>\n");
+
+        try (TrackReader reader = TrackReader.open(track)) {
+
+            Location first = reader.next();
+            assertEquals(0, first.getTime());
+            assertEquals(50.1, first.getLatitude(), 0);
+            assertEquals(14.2, first.getLongitude(), 0);
+
+            Location second = reader.next();
+            assertEquals(0, second.getTime());
+            assertEquals(50.2, second.getLatitude(), 0);
+
+            assertNull(reader.next());
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+
+        File file = new File(folder.getRoot(), name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "utf-8")) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
@@ -1,5 +1,64 @@
-import { NativeModules } from 'react-native';
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
 
-const { Geolocation } = NativeModules;
+const isTurboModuleEnabled = global.__turboModuleProxy != null;
+
+// The iOS module isn't a TurboModule, so the registry has nothing for it there.
+const Geolocation =
+  (isTurboModuleEnabled && require('./src/NativeGeolocation').default) || NativeModules.Geolocation;
+
+export const HISTORY_STRIDE = 5;
+
+const BASE64_ALPHABET = 'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+const BASE64_LOOKUP = new Uint8Array(128);
+for (let i = 0; i < BASE64_ALPHABET.length; i++) {
+  BASE64_LOOKUP[BASE64_ALPHABET.charCodeAt(i)] = i;
+}
+
+// Decodes the packed little-endian doubles sent by the native side straight into a Float64Array.
+function decodePoints(base64) {
+  const padding = base64.endsWith('==') ? 2 : base64.endsWith('=') ? 1 : 0;
+  const bytes = new Uint8Array((base64.length * 3) / 4 - padding);
+
+  let j = 0;
+  for (let i = 0; i < base64.length; i += 4) {
+    const a = BASE64_LOOKUP[base64.charCodeAt(i)];
+    const b = BASE64_LOOKUP[base64.charCodeAt(i + 1)];
+    const c = BASE64_LOOKUP[base64.charCodeAt(i + 2)];
+    const d = BASE64_LOOKUP[base64.charCodeAt(i + 3)];
+    bytes[j++] = (a << 2) | (b >> 4);
+    if (j < bytes.length) bytes[j++] = ((b & 15) << 4) | (c >> 2);
+    if (j < bytes.length) bytes[j++] = ((c & 3) << 6) | d;
+  }
+
+  return new Float64Array(bytes.buffer);
+}
+
+// Installs the JSI binding that returns the locations as an ArrayBuffer over native memory, once per JS runtime.
+// Without JSI (e.g. remote debugging or React Native before 0.71) the locations come as base64 strings instead.
+function hasHistoryBinding() {
+  if (global.__geolocationHistory == null && Platform.OS === 'android' && Geolocation.installHistoryBinding) {
+    Geolocation.installHistoryBinding();
+  }
+  return global.__geolocationHistory != null;
+}
+
+// Resolves with the tracked locations newer than `sinceTime` (epoch milliseconds) packed into a Float64Array,
+// HISTORY_STRIDE values per location: time, latitude, longitude, accuracy, altitude. Android only.
+export async function getHistory(sinceTime = 0) {
+  if (hasHistoryBinding()) {
+    return new Float64Array(global.__geolocationHistory(sinceTime, Number.MAX_VALUE));
+  }
+  return decodePoints(await Geolocation.getHistory(sinceTime));
+}
+
+// Calls `listener` with every new batch of tracked locations, packed the same way as getHistory(). Android only.
+// Returns a subscription, call its remove() to stop listening.
+export function addLocationsListener(listener) {
+  hasHistoryBinding();
+  const emitter = new NativeEventEmitter(Geolocation);
+  return emitter.addListener('GeolocationLocations', ({ points, since, until }) =>
+    listener(points != null ? decodePoints(points) : new Float64Array(global.__geolocationHistory(since, until))),
+  );
+}
 
 export default Geolocation;
@@ -0,0 +1,41 @@
+// @flow
+
+import type { TurboModule } from 'react-native/Libraries/TurboModule/RCTExport';
+import * as TurboModuleRegistry from 'react-native/Libraries/TurboModule/TurboModuleRegistry';
+
+export interface Spec extends TurboModule {
+  startTracking(
+    uploadUrl: string,
+    failureUrl: string,
+    headers: Object,
+    updatesIntervalSeconds: number,
+    distanceFilter: number,
+  ): Promise<boolean>;
+
+  startReplay(
+    uploadUrl: string,
+    failureUrl: string,
+    headers: Object,
+    updatesIntervalSeconds: number,
+    distanceFilter: number,
+    trackPath: string,
+    speed: number,
+  ): Promise<boolean>;
+
+  setOptions(options: Object): Promise<boolean>;
+
+  stopTracking(): Promise<boolean>;
+
+  // Installs global.__geolocationHistory(sinceTime, untilTime), which returns the locations as an ArrayBuffer over
+  // native memory. Returns false where JSI isn't available, getHistory() is the fallback then.
+  installHistoryBinding(): boolean;
+
+  // Base64 of little-endian doubles, [time, latitude, longitude, accuracy, altitude] per location.
+  getHistory(sinceTime: number): Promise<string>;
+
+  // Required by NativeEventEmitter, new batches are emitted as `GeolocationLocations` events.
+  addListener(eventName: string): void;
+  removeListeners(count: number): void;
+}
+
+export default (TurboModuleRegistry.get<Spec>('Geolocation'): ?Spec);